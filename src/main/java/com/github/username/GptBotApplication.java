@@ -3,15 +3,18 @@ package com.github.username;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 /**
  * Главный класс Spring Boot приложения
  *
  * @EnableAsync - включает асинхронное выполнение методов
  * Это важно для быстрой обработки webhook от Telegram
+ * @EnableScheduling - периодические задачи (возврат просроченных резервов лимита)
  */
 @SpringBootApplication
 @EnableAsync
+@EnableScheduling
 public class GptBotApplication {
 
     public static void main(String[] args) {
@@ -4,7 +4,6 @@ import com.pengrad.telegrambot.TelegramBot;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
 
 /**
  * Конфигурация бинов для Telegram бота и других сервисов
@@ -22,12 +21,4 @@ public class BotConfig {
     public TelegramBot telegramBot() {
         return new TelegramBot(botToken);
     }
-
-    /**
-     * Создает бин RestTemplate для HTTP запросов к OpenAI
-     */
-    @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
-    }
 }
\ No newline at end of file
@@ -0,0 +1,25 @@
+package com.github.username.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.orm.jpa.HibernatePropertiesCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Настройки Hibernate
+ * JDBC batch для вставок пачками (UsageHistoryWriter); значения из spring.jpa.properties имеют приоритет
+ */
+@Configuration
+public class PersistenceConfig {
+
+    @Value("${usage.history.batch-size:50}")
+    private int batchSize;
+
+    @Bean
+    public HibernatePropertiesCustomizer jdbcBatchingCustomizer() {
+        return properties -> {
+            properties.putIfAbsent("hibernate.jdbc.batch_size", batchSize);
+            properties.putIfAbsent("hibernate.order_inserts", true);
+        };
+    }
+}
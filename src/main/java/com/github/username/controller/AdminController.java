@@ -1,7 +1,9 @@
 package com.github.username.controller;
 
+import com.github.username.dto.BotResponse;
 import com.github.username.entity.User;
 import com.github.username.repository.UserRepository;
+import com.github.username.service.ChatCompletionGateway;
 import lombok.RequiredArgsConstructor;
 import org.springframework.web.bind.annotation.*;
 
@@ -17,6 +19,7 @@ import java.util.List;
 public class AdminController {
 
     private final UserRepository userRepository;
+    private final ChatCompletionGateway chatGateway;
 
     /**
      * Получает список всех пользователей (для админки)
@@ -33,4 +36,21 @@ public class AdminController {
     public User getUserStats(@PathVariable Long chatId) {
         return userRepository.findById(chatId).orElse(null);
     }
-}
\ No newline at end of file
+
+    /**
+     * Статистика кэша ответов AI
+     */
+    @GetMapping("/cache")
+    public BotResponse getCacheStats() {
+        return BotResponse.success("AI response cache", chatGateway.getCacheStats());
+    }
+
+    /**
+     * Сбрасывает кэш ответов AI: весь или только ответы на указанный запрос
+     */
+    @DeleteMapping("/cache")
+    public BotResponse invalidateCache(@RequestParam(required = false) String prompt) {
+        int removed = prompt != null ? chatGateway.invalidate(prompt) : chatGateway.invalidateAll();
+        return BotResponse.success("Removed " + removed + " cache entries");
+    }
+}
@@ -0,0 +1,37 @@
+package com.github.username.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Тело запроса POST /chat/completions
+ * Пустые поля не сериализуются
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public record ChatCompletionRequest(
+        String model,
+        List<ChatMessage> messages,
+        @JsonProperty("max_tokens") Integer maxTokens,
+        Double temperature,
+        Boolean stream,
+        @JsonProperty("stream_options") StreamOptions streamOptions) {
+
+    /**
+     * Обычный запрос: ответ приходит целиком
+     */
+    public static ChatCompletionRequest of(String model, List<ChatMessage> messages, int maxTokens, double temperature) {
+        return new ChatCompletionRequest(model, messages, maxTokens, temperature, null, null);
+    }
+
+    /**
+     * Тот же запрос в потоковом режиме; последний фрагмент потока содержит usage
+     */
+    public ChatCompletionRequest streaming() {
+        return new ChatCompletionRequest(model, messages, maxTokens, temperature, true, new StreamOptions(true));
+    }
+
+    public record StreamOptions(@JsonProperty("include_usage") boolean includeUsage) {
+    }
+}
@@ -0,0 +1,41 @@
+package com.github.username.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Ответ /chat/completions и фрагмент потокового ответа (chat.completion.chunk)
+ * Привязываются только нужные поля; id, created, system_fingerprint, logprobs и прочее
+ * Jackson пропускает на уровне токенов
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public record ChatCompletionResponse(List<Choice> choices, Usage usage) {
+
+    /**
+     * Текст первого варианта ответа (или фрагмента в потоке), null если его нет
+     */
+    public String firstContent() {
+        if (choices == null || choices.isEmpty()) {
+            return null;
+        }
+        Choice choice = choices.get(0);
+        ChatMessage message = choice.message() != null ? choice.message() : choice.delta();
+        return message != null ? message.content() : null;
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Choice(
+            ChatMessage message,
+            ChatMessage delta,
+            @JsonProperty("finish_reason") String finishReason) {
+    }
+
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public record Usage(
+            @JsonProperty("prompt_tokens") int promptTokens,
+            @JsonProperty("completion_tokens") int completionTokens,
+            @JsonProperty("total_tokens") int totalTokens) {
+    }
+}
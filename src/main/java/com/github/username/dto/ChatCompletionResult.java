@@ -0,0 +1,40 @@
+package com.github.username.dto;
+
+/**
+ * Результат запроса к OpenAI для вызывающего кода
+ *
+ * @param text             ответ AI или сообщение об ошибке для пользователя
+ * @param ok               false, если ответ не получен и text - сообщение об ошибке
+ * @param promptTokens     токены запроса по данным OpenAI (0, если OpenAI их не вернул)
+ * @param completionTokens токены ответа по данным OpenAI (0, если OpenAI их не вернул)
+ */
+public record ChatCompletionResult(String text, boolean ok, int promptTokens, int completionTokens) {
+
+    public static ChatCompletionResult success(String text, ChatCompletionResponse.Usage usage) {
+        return usage != null
+                ? new ChatCompletionResult(text, true, usage.promptTokens(), usage.completionTokens())
+                : new ChatCompletionResult(text, true, 0, 0);
+    }
+
+    public static ChatCompletionResult failure(String message) {
+        return new ChatCompletionResult(message, false, 0, 0);
+    }
+
+    /**
+     * Тот же ответ без данных об использовании - для ответа, который не ходил в OpenAI
+     */
+    public ChatCompletionResult withoutUsage() {
+        return new ChatCompletionResult(text, ok, 0, 0);
+    }
+
+    public int totalTokens() {
+        return promptTokens + completionTokens;
+    }
+
+    /**
+     * Вернул ли OpenAI данные об использовании токенов
+     */
+    public boolean hasUsage() {
+        return promptTokens + completionTokens > 0;
+    }
+}
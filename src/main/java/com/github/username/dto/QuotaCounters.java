@@ -0,0 +1,11 @@
+package com.github.username.dto;
+
+/**
+ * Счетчики лимита пользователя сразу после списания запроса
+ *
+ * @param dailyRequestsUsed запросов за сегодня, включая только что списанный
+ * @param balance           баланс после списания, $
+ * @param totalRequests     всего выполненных запросов
+ */
+public record QuotaCounters(int dailyRequestsUsed, double balance, int totalRequests) {
+}
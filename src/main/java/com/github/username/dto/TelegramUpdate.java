@@ -6,7 +6,9 @@ import lombok.Data;
 
 /**
  * DTO для парсинга обновлений от Telegram Webhook
- * Содержит только необходимые поля из Telegram API
+ * Содержит только необходимые поля из Telegram API.
+ * Неизвестные поля (фото, entities, reply_to_message и т.д.) Jackson
+ * пропускает на уровне токенов, не строя для них дерево
  */
 @Data
 @JsonIgnoreProperties(ignoreUnknown = true)
@@ -18,6 +20,12 @@ public class TelegramUpdate {
     @JsonProperty("message")
     private TelegramMessage message;
 
+    @JsonProperty("callback_query")
+    private TelegramCallbackQuery callbackQuery;
+
+    @JsonProperty("pre_checkout_query")
+    private TelegramPreCheckoutQuery preCheckoutQuery;
+
     /**
      * Вложенный класс для сообщения
      */
@@ -39,6 +47,9 @@ public class TelegramUpdate {
 
         @JsonProperty("date")
         private Long date;
+
+        @JsonProperty("successful_payment")
+        private TelegramSuccessfulPayment successfulPayment;
     }
 
     /**
@@ -83,4 +94,70 @@ public class TelegramUpdate {
         @JsonProperty("type")
         private String type; // "private", "group", "supergroup", "channel"
     }
-}
+
+    /**
+     * Вложенный класс для нажатия на inline кнопку
+     */
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class TelegramCallbackQuery {
+
+        @JsonProperty("id")
+        private String id;
+
+        @JsonProperty("from")
+        private TelegramUser from;
+
+        @JsonProperty("message")
+        private TelegramMessage message;
+
+        @JsonProperty("data")
+        private String data;
+    }
+
+    /**
+     * Вложенный класс для предварительного запроса оплаты
+     */
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class TelegramPreCheckoutQuery {
+
+        @JsonProperty("id")
+        private String id;
+
+        @JsonProperty("from")
+        private TelegramUser from;
+
+        @JsonProperty("currency")
+        private String currency;
+
+        @JsonProperty("total_amount")
+        private Integer totalAmount; // В минимальных единицах валюты (копейки, центы)
+
+        @JsonProperty("invoice_payload")
+        private String invoicePayload;
+    }
+
+    /**
+     * Вложенный класс для успешного платежа
+     */
+    @Data
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class TelegramSuccessfulPayment {
+
+        @JsonProperty("currency")
+        private String currency;
+
+        @JsonProperty("total_amount")
+        private Integer totalAmount; // В минимальных единицах валюты (копейки, центы)
+
+        @JsonProperty("invoice_payload")
+        private String invoicePayload;
+
+        @JsonProperty("telegram_payment_charge_id")
+        private String telegramPaymentChargeId;
+
+        @JsonProperty("provider_payment_charge_id")
+        private String providerPaymentChargeId;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,32 @@
+package com.github.username.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import lombok.Data;
+
+/**
+ * Вызов метода Bot API в теле ответа на webhook
+ * Telegram выполняет его сам, без отдельного исходящего запроса от бота
+ */
+@Data
+public class WebhookMethodCall {
+
+    @JsonProperty("method")
+    private String method;
+
+    @JsonProperty("chat_id")
+    private Long chatId;
+
+    @JsonProperty("text")
+    private String text;
+
+    /**
+     * Создает вызов sendMessage
+     */
+    public static WebhookMethodCall sendMessage(Long chatId, String text) {
+        WebhookMethodCall call = new WebhookMethodCall();
+        call.setMethod("sendMessage");
+        call.setChatId(chatId);
+        call.setText(text);
+        return call;
+    }
+}
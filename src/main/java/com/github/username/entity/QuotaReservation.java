@@ -0,0 +1,43 @@
+package com.github.username.entity;
+
+import jakarta.persistence.*;
+import lombok.Data;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Зарезервированный запрос пользователя
+ * Запрос уже списан из дневного лимита (и баланса), но ответ AI еще не получен.
+ * Строка удаляется при подтверждении или отмене; если ни того ни другого не случилось
+ * до expiresAt, резерв возвращается планировщиком
+ * debitPersisted - списание уже в БД; при QuotaLedger оно попадает туда не сразу
+ */
+@Data
+@Entity
+@Table(name = "quota_reservations", indexes = @Index(name = "idx_quota_reservations_expires_at", columnList = "expiresAt"))
+public class QuotaReservation {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(nullable = false)
+    private Long chatId; // Пользователь, за которым числится резерв
+
+    @Column(nullable = false)
+    private LocalDate reservedOn; // День, из лимита которого взят запрос
+
+    private double cost; // Списано с баланса, 0 для бесплатного запроса
+
+    private LocalDateTime createdAt;
+
+    private Boolean debitPersisted; // null - списание пока только в памяти QuotaLedger
+
+    @Column(nullable = false)
+    private LocalDateTime expiresAt; // После этого момента резерв возвращается сам
+
+    @PrePersist
+    protected void onCreate() {
+        createdAt = LocalDateTime.now();
+    }
+}
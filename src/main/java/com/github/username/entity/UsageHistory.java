@@ -13,9 +13,12 @@ import java.time.LocalDateTime;
 @Table(name = "usage_history")
 public class UsageHistory {
 
+    // Pooled sequence: Hibernate берет 50 id за одно обращение и может вставлять строки JDBC batch,
+    // IDENTITY batch отключает. allocationSize совпадает с INCREMENT BY последовательности
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
-    private Long id; // Автоинкрементный ID
+    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "usage_history_seq")
+    @SequenceGenerator(name = "usage_history_seq", sequenceName = "usage_history_seq", allocationSize = 50)
+    private Long id;
 
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "user_id")
@@ -33,10 +36,12 @@ public class UsageHistory {
     private LocalDateTime createdAt; // Время создания записи
 
     /**
-     * Устанавливает время создания перед сохранением
+     * Устанавливает время создания перед сохранением, если его не задали при постановке в очередь
      */
     @PrePersist
     protected void onCreate() {
-        createdAt = LocalDateTime.now();
+        if (createdAt == null) {
+            createdAt = LocalDateTime.now();
+        }
     }
 }
\ No newline at end of file
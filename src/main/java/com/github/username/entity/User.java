@@ -2,14 +2,20 @@ package com.github.username.entity;
 
 import jakarta.persistence.*;
 import lombok.Data;
+import org.hibernate.annotations.DynamicUpdate;
 import java.time.LocalDateTime;
 
 /**
  * Сущность пользователя Telegram
  * Хранит информацию о пользователе, его лимитах и балансе
+ *
+ * Существующего пользователя меняют только UPDATE в UserRepository (счетчики, баланс,
+ * contextResetAt), а не save: save отсоединенной копии - это merge, он запишет все ее
+ * устаревшие поля. @DynamicUpdate только сокращает UPDATE до измененных колонок
  */
 @Data
 @Entity
+@DynamicUpdate
 @Table(name = "users")
 public class User {
 
@@ -33,6 +39,7 @@ public class User {
 
     private LocalDateTime registeredAt; // Дата регистрации
     private LocalDateTime lastActivity; // Дата последней активности
+    private LocalDateTime contextResetAt; // Когда пользователь очистил контекст диалога (/reset)
 
     /**
      * Автоматически устанавливает даты при создании
@@ -0,0 +1,28 @@
+package com.github.username.repository;
+
+import com.github.username.entity.QuotaReservation;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Репозиторий резервов запросов
+ */
+@Repository
+public interface QuotaReservationRepository extends JpaRepository<QuotaReservation, Long> {
+
+    List<QuotaReservation> findByExpiresAtBefore(LocalDateTime now);
+
+    /**
+     * Удаляет резерв; 1 - резерв был и теперь принадлежит вызывающему, 0 - его уже забрали
+     * (подтвердили, отменили или вернул планировщик)
+     */
+    @Modifying
+    @Query("delete from QuotaReservation r where r.id = :id")
+    int deleteReservation(@Param("id") Long id);
+}
@@ -1,13 +1,24 @@
 package com.github.username.repository;
 
 import com.github.username.entity.UsageHistory;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.time.LocalDateTime;
+import java.util.List;
+
 /**
  * Репозиторий для истории использования
  */
 @Repository
 public interface UsageRepository extends JpaRepository<UsageHistory, Long> {
     // Базовые методы уже включены через JpaRepository
+
+    /**
+     * Последние запросы пользователя после указанного момента, новые первыми
+     * Используется для восстановления контекста диалога
+     */
+    List<UsageHistory> findByUserChatIdAndCreatedAtAfterOrderByCreatedAtDesc(Long chatId, LocalDateTime after,
+                                                                             Pageable pageable);
 }
\ No newline at end of file
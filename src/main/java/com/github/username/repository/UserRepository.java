@@ -1,16 +1,90 @@
 package com.github.username.repository;
 
+import com.github.username.dto.QuotaCounters;
 import com.github.username.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
 
 /**
  * Репозиторий для работы с пользователями
  * Наследует все стандартные методы CRUD от JpaRepository
+ *
+ * Счетчики лимита и баланс меняются только условными UPDATE ниже: проверка и запись идут
+ * одним оператором, поэтому параллельные запросы одного пользователя не теряют изменения.
+ * Вне транзакции вызывающего каждый такой UPDATE выполняется в собственной
  */
 @Repository
 public interface UserRepository extends JpaRepository<User, Long> {
-    // Spring Data JPA автоматически реализует методы:
-    // save(), findById(), findAll(), deleteById() и т.д.
-    // Здесь можно добавить кастомные запросы при необходимости
+
+    /**
+     * Списывает один запрос: бесплатный, пока не исчерпан дневной лимит, затем платный с баланса
+     * Если последний запрос был до dayStart, дневной счетчик считается нулевым (смена дня).
+     * Присваивания в SET видят значения строки до обновления
+     *
+     * @return 1 - запрос разрешен и списан, 0 - лимит исчерпан или пользователя нет
+     */
+    @Transactional
+    @Modifying
+    @Query("update User u set "
+            + "u.balance = case when (case when u.lastRequestDate >= :dayStart then u.dailyRequestsUsed else 0 end) >= :freeLimit "
+            + "then u.balance - :price else u.balance end, "
+            + "u.dailyRequestsUsed = (case when u.lastRequestDate >= :dayStart then u.dailyRequestsUsed else 0 end) + 1, "
+            + "u.lastRequestDate = :now, "
+            + "u.lastActivity = :now "
+            + "where u.chatId = :chatId "
+            + "and ((case when u.lastRequestDate >= :dayStart then u.dailyRequestsUsed else 0 end) < :freeLimit "
+            + "or u.balance >= :price)")
+    int consumeRequest(@Param("chatId") Long chatId, @Param("dayStart") LocalDateTime dayStart,
+                       @Param("now") LocalDateTime now, @Param("freeLimit") int freeLimit,
+                       @Param("price") double price);
+
+    /**
+     * Возвращает списанный запрос, если он был взят из лимита дня [dayStart, dayEnd)
+     * Деньги возвращаются в любом случае
+     */
+    @Transactional
+    @Modifying
+    @Query("update User u set "
+            + "u.dailyRequestsUsed = case when u.dailyRequestsUsed > 0 and u.lastRequestDate >= :dayStart "
+            + "and u.lastRequestDate < :dayEnd then u.dailyRequestsUsed - 1 else u.dailyRequestsUsed end, "
+            + "u.balance = u.balance + :refund "
+            + "where u.chatId = :chatId")
+    int refundRequest(@Param("chatId") Long chatId, @Param("dayStart") LocalDateTime dayStart,
+                      @Param("dayEnd") LocalDateTime dayEnd, @Param("refund") double refund);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.totalRequests = u.totalRequests + 1 where u.chatId = :chatId")
+    int incrementTotalRequests(@Param("chatId") Long chatId);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.balance = u.balance + :amount where u.chatId = :chatId")
+    int addBalance(@Param("chatId") Long chatId, @Param("amount") double amount);
+
+    @Transactional
+    @Modifying
+    @Query("update User u set u.contextResetAt = :resetAt where u.chatId = :chatId")
+    int setContextResetAt(@Param("chatId") Long chatId, @Param("resetAt") LocalDateTime resetAt);
+
+    /**
+     * Счетчики лимита без загрузки всей сущности
+     */
+    @Query("select new com.github.username.dto.QuotaCounters(u.dailyRequestsUsed, u.balance, u.totalRequests) "
+            + "from User u where u.chatId = :chatId")
+    Optional<QuotaCounters> findQuotaCounters(@Param("chatId") Long chatId);
+
+    /**
+     * Пользователи, делавшие запросы после since, недавние первыми (прогрев кэша при старте)
+     */
+    List<User> findByLastRequestDateAfterOrderByLastRequestDateDesc(LocalDateTime since, Pageable pageable);
 }
@@ -0,0 +1,96 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Контроль допуска AI запросов
+ * Когда OpenAI тормозит, каждое новое сообщение все равно занимает поток и
+ * отправляет "⏳ Обрабатываю" - задержка растет у всех. Контроллер смотрит на число
+ * задач в работе, недавнее ожидание в очереди и недавнюю задержку OpenAI и при перегрузке
+ * отказывает сразу, еще до обращений к БД и к OpenAI
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdmissionController {
+
+    private final AiTaskExecutor aiTaskExecutor;
+    private final ChatMailboxDispatcher mailboxDispatcher;
+    private final OpenAIService openAIService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.admission.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.admission.max-in-flight:300}")
+    private int maxInFlight; // Выполняются + ждут в очереди пула + ждут в ящиках чатов
+
+    @Value("${ai.admission.max-queue-wait-ms:15000}")
+    private long maxQueueWaitMillis;
+
+    @Value("${ai.admission.max-openai-latency-ms:30000}")
+    private long maxOpenAiLatencyMillis;
+
+    @Value("${ai.admission.latency-min-in-flight:20}")
+    private int latencyMinInFlight; // По задержке OpenAI отсекаем только при заметной нагрузке
+
+    private Counter shedByInFlight;
+    private Counter shedByQueueWait;
+    private Counter shedByLatency;
+
+    @PostConstruct
+    public void init() {
+        shedByInFlight = shedCounter("in_flight");
+        shedByQueueWait = shedCounter("queue_wait");
+        shedByLatency = shedCounter("openai_latency");
+    }
+
+    /**
+     * Решает, принимать ли новый AI запрос
+     *
+     * @return true если запрос можно ставить в очередь
+     */
+    public boolean tryAdmit(Long chatId) {
+        if (!enabled) {
+            return true;
+        }
+
+        int inFlight = aiTaskExecutor.getActiveCount() + aiTaskExecutor.getQueueDepth()
+                + mailboxDispatcher.getPendingCount();
+
+        if (inFlight >= maxInFlight) {
+            return shed(shedByInFlight, chatId, "in-flight " + inFlight);
+        }
+
+        double queueWait = aiTaskExecutor.getRecentQueueWaitMillis();
+        if (queueWait > maxQueueWaitMillis) {
+            return shed(shedByQueueWait, chatId, "queue wait " + (long) queueWait + " ms");
+        }
+
+        double latency = openAIService.getRecentLatencyMillis();
+        if (inFlight >= latencyMinInFlight && latency > maxOpenAiLatencyMillis) {
+            return shed(shedByLatency, chatId, "OpenAI latency " + (long) latency + " ms");
+        }
+
+        return true;
+    }
+
+    private boolean shed(Counter counter, Long chatId, String reason) {
+        counter.increment();
+        log.warn("Shedding AI request from chat {}: {}", chatId, reason);
+        return false;
+    }
+
+    private Counter shedCounter(String reason) {
+        return Counter.builder("bot.ai.admission.shed")
+                .description("AI запросы, отклоненные контролем допуска")
+                .tag("reason", reason)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,173 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Общий пул для обработки AI запросов
+ * Вместо нового потока на каждое сообщение - ограниченный пул с ограниченной очередью.
+ * Если JVM поддерживает виртуальные потоки - пул работает на них.
+ * Если очередь переполнена - пользователь сразу получает ответ "бот занят"
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AiTaskExecutor {
+
+    private final TelegramMessageService messageService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.executor.threads:16}")
+    private int platformThreads; // Размер пула на обычных потоках
+
+    @Value("${ai.executor.virtual-threads:true}")
+    private boolean useVirtualThreads;
+
+    @Value("${ai.executor.virtual-max-concurrency:256}")
+    private int virtualConcurrency; // Сколько AI запросов выполняется одновременно на виртуальных потоках
+
+    @Value("${ai.executor.queue-capacity:500}")
+    private int queueCapacity;
+
+    private ThreadPoolExecutor executor;
+    private Counter rejectedCounter;
+    private Timer queueWaitTimer;
+    private final DecayingAverage queueWait = new DecayingAverage(0.2, 10, TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        ThreadFactory virtualFactory = useVirtualThreads ? virtualThreadFactory() : null;
+        boolean virtual = virtualFactory != null;
+        int threads = virtual ? virtualConcurrency : platformThreads;
+
+        executor = new ThreadPoolExecutor(
+                threads, threads,
+                60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                virtual ? virtualFactory : platformThreadFactory(),
+                new ThreadPoolExecutor.AbortPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        Gauge.builder("bot.ai.executor.queue.depth", executor, e -> e.getQueue().size())
+                .description("AI задачи, ожидающие свободного потока")
+                .register(meterRegistry);
+        Gauge.builder("bot.ai.executor.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("AI задачи, выполняющиеся прямо сейчас")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("bot.ai.executor.rejected")
+                .description("AI задачи, отклоненные из-за переполнения очереди")
+                .register(meterRegistry);
+        queueWaitTimer = Timer.builder("bot.ai.executor.queue.wait")
+                .description("Сколько AI задача ждала свободного потока")
+                .register(meterRegistry);
+
+        log.info("AI executor started: {} threads ({}), queue capacity {}",
+                threads, virtual ? "virtual" : "platform", queueCapacity);
+    }
+
+    /**
+     * Ставит AI задачу в очередь
+     *
+     * @param chatId чат, которому отправить ответ "бот занят" при переполнении
+     * @param task задача
+     * @return true если задача принята
+     */
+    public boolean submit(Long chatId, Runnable task) {
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long waitNanos = System.nanoTime() - enqueuedAt;
+                queueWaitTimer.record(waitNanos, TimeUnit.NANOSECONDS);
+                queueWait.record(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+                task.run();
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            log.warn("AI executor is saturated, rejecting request from chat {}", chatId);
+            messageService.sendMessage(chatId, BotMessages.AI_BUSY);
+            return false;
+        }
+    }
+
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     * Недавнее среднее время ожидания в очереди, мс
+     */
+    public double getRecentQueueWaitMillis() {
+        return queueWait.get();
+    }
+
+    /**
+     * Останавливает прием новых задач и ждет завершения уже принятых
+     *
+     * @return сколько задач не успело выполниться за отведенное время
+     */
+    public int drain(long timeoutMillis) {
+        executor.shutdown();
+        try {
+            if (executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return 0;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        int active = executor.getActiveCount();
+        List<Runnable> neverStarted = executor.shutdownNow();
+        return active + neverStarted.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Фабрика виртуальных потоков (Java 21+)
+     * Проект собирается под Java 17, поэтому API вызывается через reflection.
+     * На старых JVM возвращает null и используется обычный пул
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> ofVirtual = Class.forName("java.lang.Thread$Builder$OfVirtual");
+            builder = ofVirtual.getMethod("name", String.class, long.class).invoke(builder, "ai-vworker-", 0L);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder").getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory platformThreadFactory() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "ai-worker-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,143 @@
+package com.github.username.service;
+
+/**
+ * Статические тексты ответов бота
+ * Собраны в константы, чтобы не склеивать длинные строки на каждую команду
+ */
+public final class BotMessages {
+
+    public static final String HELP =
+            "🆘 **Помощь по боту:**\n\n" +
+            "🤖 **Основные функции:**\n" +
+            "• Просто напишите вопрос - и я отвечу!\n" +
+            "• Бесплатно: 10 запросов в день\n" +
+            "• После лимита - докупайте дополнительные запросы\n\n" +
+            "💎 **Система оплаты:**\n" +
+            "• Оплата через Telegram Payments\n" +
+            "• Безопасно и удобно\n" +
+            "• Моментальное пополнение баланса\n\n" +
+            "📋 **Доступные команды:**\n" +
+            "/start - начать работу\n" +
+            "/stats - ваша статистика\n" +
+            "/reset - начать диалог заново\n" +
+            "/payment - информация об оплате\n" +
+            "/buy_10 - купить 10 запросов (100 руб.)\n" +
+            "/buy_50 - купить 50 запросов (400 руб.)\n" +
+            "/buy_100 - купить 100 запросов (700 руб.)\n" +
+            "/help - эта справка";
+
+    public static final String PAYMENT_OPTIONS =
+            "💳 **Доступные пакеты запросов:**\n\n" +
+            "🔹 **10 запросов** - 100 руб.\n" +
+            "   Команда: /buy_10\n\n" +
+            "🔹 **50 запросов** - 400 руб. (экономия 100 руб.)\n" +
+            "   Команда: /buy_50\n\n" +
+            "🔹 **100 запросов** - 700 руб. (экономия 300 руб.)\n" +
+            "   Команда: /buy_100\n\n" +
+            "💎 **Почему выгоднее покупать больше?**\n" +
+            "• 10 запросов: 10 руб./запрос\n" +
+            "• 50 запросов: 8 руб./запрос\n" +
+            "• 100 запросов: 7 руб./запрос\n\n" +
+            "⚡ После оплаты запросы автоматически добавятся к вашему балансу!";
+
+    public static final String UNKNOWN_COMMAND =
+            "❌ Неизвестная команда. Используйте /help для просмотра доступных команд.";
+
+    public static final String INVALID_PACKAGE =
+            "❌ Неверный тип пакета. Используйте /buy_10, /buy_50 или /buy_100";
+
+    public static final String INVOICE_PREPARING = "💳 **Подготовка счета для оплаты...**\n\n";
+
+    public static final String INVOICE_INSTRUCTIONS =
+            "📋 **Инструкция по оплате (ТЕСТОВЫЙ РЕЖИМ):**\n\n" +
+            "1. 🪟 Откроется окно оплаты Telegram\n" +
+            "2. 💳 Введите данные **тестовой карты**:\n" +
+            "   • Номер: `4111 1111 1111 1111`\n" +
+            "   • Срок: любая будущая дата\n" +
+            "   • CVV: любые 3 цифры\n" +
+            "3. ✅ Подтвердите оплату\n\n" +
+            "💡 **Важно:** Это тестовый платеж, реальные деньги **не списываются**!\n" +
+            "🔒 Все платежи защищены Telegram Payments";
+
+    public static final String INVOICE_FAILED =
+            "❌ **Не удалось создать счет для оплаты**\n\n" +
+            "Возможные причины:\n" +
+            "• Платежная система временно недоступна\n" +
+            "• Технические работы\n" +
+            "• Проблемы с подключением\n\n" +
+            "🔄 Пожалуйста, попробуйте позже\n" +
+            "🔧 Или обратитесь в поддержку";
+
+    public static final String PACKAGE_10 =
+            "🔹 **Пакет: 10 запросов**\n" +
+            "💵 Стоимость: 100 руб.\n" +
+            "📊 Цена за запрос: 10 руб.\n" +
+            "⏱ Время обработки: мгновенно";
+
+    public static final String PACKAGE_50 =
+            "🔹 **Пакет: 50 запросов**\n" +
+            "💵 Стоимость: 400 руб.\n" +
+            "📊 Цена за запрос: 8 руб. (экономия 20%!)\n" +
+            "💰 Экономия: 100 руб.\n" +
+            "⏱ Время обработки: мгновенно";
+
+    public static final String PACKAGE_100 =
+            "🔹 **Пакет: 100 запросов**\n" +
+            "💵 Стоимость: 700 руб.\n" +
+            "📊 Цена за запрос: 7 руб. (экономия 30%!)\n" +
+            "💰 Экономия: 300 руб.\n" +
+            "⏱ Время обработки: мгновенно";
+
+    public static final String CONTEXT_RESET =
+            "🧹 Контекст диалога очищен. Следующий вопрос я прочитаю без учета предыдущих.";
+
+    public static final String AI_ERROR =
+            "⚠️ Произошла ошибка при обработке вашего запроса. Пожалуйста, попробуйте позже.";
+
+    public static final String AI_BUSY =
+            "⏳ Сейчас бот перегружен запросами. Пожалуйста, попробуйте через минуту.";
+
+    public static final String CHAT_BUSY =
+            "⏳ Подождите, я еще отвечаю на ваши предыдущие сообщения.";
+
+    public static final String AI_OVERLOADED =
+            "🚦 Сейчас очень много запросов, AI отвечает медленно. Пожалуйста, повторите вопрос через пару минут.";
+
+    private BotMessages() {
+    }
+
+    /**
+     * Приветствие после имени пользователя - зависит только от дневного лимита,
+     * поэтому рендерится один раз при старте
+     */
+    public static String welcomeSuffix(int dailyFreeLimit) {
+        return "!\n\n" +
+                "Я - AI помощник на основе ChatGPT. Задавайте мне любые вопросы!\n\n" +
+                "📊 Статистика: /stats\n" +
+                "💳 Пополнить баланс: /payment\n" +
+                "🆘 Помощь: /help\n\n" +
+                "🎯 Сегодня у вас **" + dailyFreeLimit + " бесплатных запросов**!\n" +
+                "💎 После лимита - докупайте дополнительные запросы";
+    }
+
+    /**
+     * Подтверждение успешной оплаты
+     */
+    public static String paymentThanks(int totalAmount, String currency) {
+        return "✅ **Оплата прошла успешно!** 🎉\n\n" +
+                "💳 Сумма: " + (totalAmount / 100) + " " + currency + "\n" +
+                "📦 Запросы добавлены к вашему балансу!\n\n" +
+                "💰 Теперь вы можете продолжать общение с ботом!\n" +
+                "📊 Посмотреть баланс: /stats\n\n" +
+                "🙏 Спасибо за доверие!";
+    }
+
+    public static String promptTooLong(int tokens, int maxTokens) {
+        return "✂️ Сообщение слишком длинное: " + tokens + " токенов при максимуме " + maxTokens + ".\n\n" +
+                "Сократите вопрос или разбейте его на несколько сообщений.";
+    }
+
+    public static String promptTrimmed(int maxTokens) {
+        return "✂️ Сообщение длиннее " + maxTokens + " токенов, к AI отправлено только его начало.";
+    }
+}
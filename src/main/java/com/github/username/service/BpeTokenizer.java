@@ -0,0 +1,422 @@
+package com.github.username.service;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * BPE токенизатор, совместимый с cl100k_base (gpt-3.5-turbo, gpt-4)
+ * Словарь - файл tiktoken ("base64(байты) ранг" в строке), лежит в ресурсах.
+ *
+ * Текст режется на куски по правилам регулярного выражения cl100k, каждый кусок переводится в UTF-8
+ * и склеивается парами байт по возрастанию ранга, пока есть пара из словаря.
+ * Словарь хранится одним массивом байт с открытой адресацией по хешу, поиск идет по срезу
+ * буфера без создания ключей; буферы переиспользуются в пределах потока
+ *
+ * Регулярное выражение cl100k:
+ * (?i:'s|'t|'re|'ve|'m|'ll|'d)|[^\r\n\p{L}\p{N}]?\p{L}+|\p{N}{1,3}| ?[^\s\p{L}\p{N}]+[\r\n]*|\s*[\r\n]+|\s+(?!\S)|\s+
+ * java.util.regex на нем тратит больше времени, чем сам BPE, поэтому оно разобрано вручную в pieceEnd
+ */
+public class BpeTokenizer {
+
+    public static final String CL100K_RESOURCE = "tokenizer/cl100k_base.tiktoken";
+
+    private final byte[] pool;    // Байты всех токенов подряд
+    private final int[] offsets;  // Начало токена i в pool, offsets[size] - конец последнего
+    private final int[] ranks;
+    private final int[] slots;    // Индекс токена + 1, 0 - пусто
+    private final int mask;
+
+    private final ThreadLocal<Scratch> scratch = ThreadLocal.withInitial(Scratch::new);
+
+    private BpeTokenizer(byte[] pool, int[] offsets, int[] ranks, int size) {
+        this.pool = pool;
+        this.offsets = offsets;
+        this.ranks = ranks;
+
+        int capacity = Integer.highestOneBit(Math.max(size, 1) * 2) << 1; // Заполнение не больше половины
+        this.slots = new int[capacity];
+        this.mask = capacity - 1;
+        for (int token = 0; token < size; token++) {
+            int slot = hash(pool, offsets[token], offsets[token + 1]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = token + 1;
+        }
+    }
+
+    /**
+     * Загружает словарь cl100k_base из ресурсов приложения
+     */
+    public static BpeTokenizer cl100k() {
+        try (InputStream in = BpeTokenizer.class.getClassLoader().getResourceAsStream(CL100K_RESOURCE)) {
+            if (in == null) {
+                throw new IllegalStateException("Tokenizer vocabulary not found: " + CL100K_RESOURCE);
+            }
+            return load(in);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read tokenizer vocabulary", e);
+        }
+    }
+
+    /**
+     * Читает словарь в формате tiktoken
+     */
+    public static BpeTokenizer load(InputStream in) throws IOException {
+        Base64.Decoder decoder = Base64.getDecoder();
+        ByteArrayOutputStream pool = new ByteArrayOutputStream(1 << 20);
+        int[] offsets = new int[1 << 17];
+        int[] ranks = new int[1 << 17];
+        int size = 0;
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.US_ASCII));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            int space = line.indexOf(' ');
+            if (space < 0) {
+                continue;
+            }
+            if (size + 1 == offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                ranks = Arrays.copyOf(ranks, ranks.length * 2);
+            }
+            byte[] token = decoder.decode(line.substring(0, space));
+            offsets[size] = pool.size();
+            ranks[size] = Integer.parseInt(line, space + 1, line.length(), 10);
+            pool.write(token);
+            size++;
+        }
+        offsets[size] = pool.size();
+        return new BpeTokenizer(pool.toByteArray(), offsets, ranks, size);
+    }
+
+    /**
+     * Число токенов в тексте
+     */
+    public int count(CharSequence text) {
+        return scan(text, Integer.MAX_VALUE, false, scratch.get());
+    }
+
+    /**
+     * Номера токенов текста - те же, что вернет tiktoken
+     */
+    public int[] encode(CharSequence text) {
+        Scratch s = scratch.get();
+        scan(text, Integer.MAX_VALUE, true, s);
+        return Arrays.copyOf(s.tokens, s.tokenCount);
+    }
+
+    /**
+     * Начало текста, которое укладывается в maxTokens
+     * Обрезается по границе куска регулярного выражения, чтобы не резать слово посередине
+     */
+    public String truncate(String text, int maxTokens) {
+        Scratch s = scratch.get();
+        scan(text, maxTokens, false, s);
+        return s.cutAt < 0 ? text : text.substring(0, s.cutAt);
+    }
+
+    private int scan(CharSequence text, int maxTokens, boolean collect, Scratch s) {
+        s.cutAt = -1;
+        s.tokenCount = 0;
+        int length = text.length();
+        int total = 0;
+        for (int start = 0; start < length; ) {
+            int end = pieceEnd(text, start, length);
+            int pieceTokens = tokenizePiece(s, text, start, end, collect);
+            if (total + pieceTokens > maxTokens) {
+                s.cutAt = start;
+                s.tokenCount -= collect ? pieceTokens : 0;
+                return total;
+            }
+            total += pieceTokens;
+            start = end;
+        }
+        return total;
+    }
+
+    /**
+     * Конец куска, который начинается в start - то же, что нашло бы регулярное выражение cl100k
+     * Ветки проверяются в порядке альтернатив выражения
+     */
+    static int pieceEnd(CharSequence text, int start, int length) {
+        int c = Character.codePointAt(text, start);
+        int next = start + Character.charCount(c);
+
+        // '(?i:'s|'t|'re|'ve|'m|'ll|'d)
+        if (c == '\'' && next < length) {
+            char a = asciiLower(text.charAt(next));
+            if (a == 's' || a == 't' || a == 'm' || a == 'd') {
+                return next + 1;
+            }
+            if (next + 1 < length) {
+                char b = asciiLower(text.charAt(next + 1));
+                if ((a == 'r' || a == 'v') && b == 'e' || a == 'l' && b == 'l') {
+                    return next + 2;
+                }
+            }
+        }
+
+        // [^\r\n\p{L}\p{N}]?\p{L}+
+        if (Character.isLetter(c)) {
+            return skipLetters(text, next, length);
+        }
+        // \p{N}{1,3}
+        if (isNumber(c)) {
+            int end = next;
+            for (int digits = 1; digits < 3 && end < length; digits++) {
+                int d = Character.codePointAt(text, end);
+                if (!isNumber(d)) {
+                    break;
+                }
+                end += Character.charCount(d);
+            }
+            return end;
+        }
+        if (c != '\r' && c != '\n' && next < length) {
+            int letter = Character.codePointAt(text, next);
+            if (Character.isLetter(letter)) {
+                return skipLetters(text, next + Character.charCount(letter), length);
+            }
+        }
+
+        // ' ?[^\s\p{L}\p{N}]+[\r\n]*'
+        int otherStart = c == ' ' ? next : start;
+        if (otherStart < length) {
+            int o = Character.codePointAt(text, otherStart);
+            if (isOther(o)) {
+                int end = otherStart + Character.charCount(o);
+                while (end < length && isOther(o = Character.codePointAt(text, end))) {
+                    end += Character.charCount(o);
+                }
+                while (end < length && (text.charAt(end) == '\r' || text.charAt(end) == '\n')) {
+                    end++;
+                }
+                return end;
+            }
+        }
+
+        // Остался пробельный символ: \s*[\r\n]+ | \s+(?!\S) | \s+
+        int end = start;
+        int lastNewline = -1;
+        while (end < length && isWhitespace(text.charAt(end))) {
+            if (text.charAt(end) == '\r' || text.charAt(end) == '\n') {
+                lastNewline = end;
+            }
+            end++;
+        }
+        if (lastNewline >= 0) {
+            return lastNewline + 1;
+        }
+        if (end == length || end - start == 1) {
+            return end;
+        }
+        return end - 1; // Последний пробел уходит в начало следующего слова
+    }
+
+    private static int skipLetters(CharSequence text, int from, int length) {
+        int end = from;
+        while (end < length) {
+            int c = Character.codePointAt(text, end);
+            if (!Character.isLetter(c)) {
+                break;
+            }
+            end += Character.charCount(c);
+        }
+        return end;
+    }
+
+    private static boolean isNumber(int c) {
+        int type = Character.getType(c);
+        return type == Character.DECIMAL_DIGIT_NUMBER || type == Character.LETTER_NUMBER
+                || type == Character.OTHER_NUMBER;
+    }
+
+    /**
+     * \s в Unicode смысле (White_Space); Character.isWhitespace не считает пробелом, например, U+00A0
+     */
+    private static boolean isWhitespace(int c) {
+        switch (c) {
+            case '\t', '\n', 0x0B, '\f', '\r', ' ', 0x85, 0xA0, 0x1680, 0x2028, 0x2029, 0x202F, 0x205F, 0x3000:
+                return true;
+            default:
+                return c >= 0x2000 && c <= 0x200A;
+        }
+    }
+
+    private static boolean isOther(int c) {
+        return !isWhitespace(c) && !Character.isLetter(c) && !isNumber(c);
+    }
+
+    private static char asciiLower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    private int tokenizePiece(Scratch s, CharSequence text, int start, int end, boolean collect) {
+        int length = s.encodeUtf8(text, start, end);
+        int whole = rank(s.bytes, 0, length); // Частый случай: кусок целиком есть в словаре
+        if (whole >= 0) {
+            if (collect) {
+                s.addToken(whole);
+            }
+            return 1;
+        }
+
+        int parts = bytePairMerge(s, length);
+        if (collect) {
+            for (int i = 0; i < parts; i++) {
+                s.addToken(rank(s.bytes, s.bounds[i], s.bounds[i + 1]));
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Склеивает соседние части с наименьшим рангом, пока склейка есть в словаре
+     * Границы частей остаются в s.bounds
+     *
+     * @return число частей (токенов)
+     */
+    private int bytePairMerge(Scratch s, int length) {
+        int[] bounds = s.bounds(length + 1);
+        int[] pairRanks = s.pairRanks(length);
+        byte[] bytes = s.bytes;
+
+        for (int i = 0; i <= length; i++) {
+            bounds[i] = i;
+        }
+        int parts = length;
+        for (int i = 0; i < parts - 1; i++) {
+            pairRanks[i] = rank(bytes, bounds[i], bounds[i + 2]);
+        }
+
+        while (parts > 1) {
+            int best = -1;
+            int bestRank = Integer.MAX_VALUE;
+            for (int i = 0; i < parts - 1; i++) {
+                int rank = pairRanks[i];
+                if (rank >= 0 && rank < bestRank) {
+                    bestRank = rank;
+                    best = i;
+                }
+            }
+            if (best < 0) {
+                break;
+            }
+
+            // Части best и best + 1 становятся одной, пары вокруг нее пересчитываются
+            System.arraycopy(bounds, best + 2, bounds, best + 1, parts - best - 1);
+            System.arraycopy(pairRanks, best + 1, pairRanks, best, parts - best - 2);
+            parts--;
+            if (best > 0) {
+                pairRanks[best - 1] = rank(bytes, bounds[best - 1], bounds[best + 1]);
+            }
+            if (best < parts - 1) {
+                pairRanks[best] = rank(bytes, bounds[best], bounds[best + 2]);
+            }
+        }
+        return parts;
+    }
+
+    /**
+     * Ранг последовательности байт или -1, если ее нет в словаре
+     */
+    private int rank(byte[] bytes, int from, int to) {
+        int length = to - from;
+        for (int slot = hash(bytes, from, to) & mask; ; slot = (slot + 1) & mask) {
+            int entry = slots[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int start = offsets[entry - 1];
+            if (offsets[entry] - start == length && Arrays.equals(pool, start, start + length, bytes, from, to)) {
+                return ranks[entry - 1];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes, int from, int to) {
+        int h = 0x811C9DC5; // FNV-1a
+        for (int i = from; i < to; i++) {
+            h = (h ^ (bytes[i] & 0xFF)) * 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Буферы одного потока: переиспользуются между вызовами
+     */
+    private static final class Scratch {
+        byte[] bytes = new byte[256];
+        int[] bounds = new int[256];
+        int[] pairRanks = new int[256];
+        int[] tokens = new int[256];
+        int tokenCount;
+        int cutAt;
+
+        /**
+         * Кодирует text[start, end) в UTF-8 в начало bytes
+         * Непарный суррогат заменяется на '?', как в String.getBytes
+         */
+        int encodeUtf8(CharSequence text, int start, int end) {
+            int required = (end - start) * 3;
+            if (bytes.length < required) {
+                bytes = new byte[Math.max(required, bytes.length * 2)];
+            }
+            byte[] out = bytes;
+            int length = 0;
+            for (int i = start; i < end; i++) {
+                char c = text.charAt(i);
+                if (c < 0x80) {
+                    out[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[length++] = (byte) (0xC0 | (c >> 6));
+                    out[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(text.charAt(i + 1))) {
+                        int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                        out[length++] = (byte) (0xF0 | (codePoint >> 18));
+                        out[length++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                        out[length++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                        out[length++] = (byte) (0x80 | (codePoint & 0x3F));
+                    } else {
+                        out[length++] = '?';
+                    }
+                } else {
+                    out[length++] = (byte) (0xE0 | (c >> 12));
+                    out[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    out[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            return length;
+        }
+
+        int[] bounds(int size) {
+            if (bounds.length < size) {
+                bounds = new int[Math.max(size, bounds.length * 2)];
+            }
+            return bounds;
+        }
+
+        int[] pairRanks(int size) {
+            if (pairRanks.length < size) {
+                pairRanks = new int[Math.max(size, pairRanks.length * 2)];
+            }
+            return pairRanks;
+        }
+
+        void addToken(int token) {
+            if (tokenCount == tokens.length) {
+                tokens = Arrays.copyOf(tokens, tokens.length * 2);
+            }
+            tokens[tokenCount++] = token;
+        }
+    }
+}
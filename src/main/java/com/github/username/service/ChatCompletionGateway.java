@@ -0,0 +1,263 @@
+package com.github.username.service;
+
+import com.github.username.dto.ChatCompletionResult;
+import com.github.username.dto.ChatMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Точка входа для AI запросов перед OpenAIService
+ * Короткие повторяющиеся вопросы ("привет", "что ты умеешь") отвечаются из кэша:
+ * ключ - нормализованный текст + модель + temperature, размер ограничен (LRU), записи живут ttl.
+ * Длинные запросы и запросы с контекстом диалога идут в OpenAI мимо кэша.
+ *
+ * Одинаковые запросы, пришедшие одновременно (популярный вопрос в группе), объединяются:
+ * в OpenAI уходит один запрос, остальные ждут его результат. Токены OpenAI достаются только
+ * ведущему; ведомые и ответы из кэша получают результат без них (см. withoutUsage),
+ * иначе один запрос к OpenAI был бы записан каждому пользователю целиком
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatCompletionGateway {
+
+    private final OpenAIService openAIService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.cache.enabled:true}")
+    private boolean cacheEnabled;
+
+    @Value("${ai.cache.max-size:10000}")
+    private int cacheMaxSize;
+
+    @Value("${ai.cache.ttl-minutes:60}")
+    private long cacheTtlMinutes;
+
+    @Value("${ai.cache.max-prompt-length:200}")
+    private int maxPromptLength; // Длинные запросы почти не повторяются - не засоряем ими кэш
+
+    private TtlLruCache<CacheKey, ChatCompletionResult> cache;
+    private final ConcurrentHashMap<CacheKey, CompletableFuture<ChatCompletionResult>> inFlight = new ConcurrentHashMap<>();
+    private Counter bypassCounter;
+    private Counter coalescedCounter;
+
+    @PostConstruct
+    public void init() {
+        cache = new TtlLruCache<>(cacheMaxSize, cacheTtlMinutes, TimeUnit.MINUTES);
+
+        FunctionCounter.builder("ai.cache.requests", cache, TtlLruCache::hitCount)
+                .description("Запросы к кэшу ответов AI")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.cache.requests", cache, TtlLruCache::missCount)
+                .description("Запросы к кэшу ответов AI")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        bypassCounter = Counter.builder("ai.cache.requests")
+                .description("Запросы к кэшу ответов AI")
+                .tag("result", "bypass")
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.cache.evictions", cache, TtlLruCache::sizeEvictionCount)
+                .description("Записи, вытесненные из кэша ответов AI")
+                .tag("cause", "size")
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.cache.evictions", cache, TtlLruCache::expirationCount)
+                .description("Записи, вытесненные из кэша ответов AI")
+                .tag("cause", "expired")
+                .register(meterRegistry);
+        Gauge.builder("ai.cache.size", cache, TtlLruCache::size)
+                .description("Записей в кэше ответов AI")
+                .register(meterRegistry);
+        coalescedCounter = Counter.builder("ai.singleflight.coalesced")
+                .description("Запросы к OpenAI, сэкономленные объединением одинаковых одновременных запросов")
+                .register(meterRegistry);
+        Gauge.builder("ai.singleflight.in-flight", inFlight, Map::size)
+                .description("Уникальные запросы к OpenAI, которые сейчас ждут ответа")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Возвращает ответ AI на одиночный запрос
+     *
+     * @param onPartial получает промежуточный текст в потоковом режиме; null - ответ целиком
+     */
+    public ChatCompletionResult complete(String prompt, Consumer<CharSequence> onPartial) {
+        return complete(prompt, List.of(), onPartial);
+    }
+
+    /**
+     * Возвращает ответ AI на запрос с контекстом диалога
+     * Ответ зависит от контекста, поэтому такие запросы не кэшируются и не объединяются
+     *
+     * @param history предыдущие реплики чата (старые первыми)
+     */
+    public ChatCompletionResult complete(String prompt, List<ChatMessage> history, Consumer<CharSequence> onPartial) {
+        if (!history.isEmpty()) {
+            bypassCounter.increment();
+            List<ChatMessage> messages = new ArrayList<>(history.size() + 1);
+            messages.addAll(history);
+            messages.add(ChatMessage.user(prompt));
+            return onPartial != null
+                    ? openAIService.streamChatResponse(messages, onPartial)
+                    : openAIService.getChatResponse(messages);
+        }
+
+        CacheKey key = requestKey(prompt);
+        if (key == null) {
+            return callOpenAI(prompt, onPartial);
+        }
+
+        boolean cacheable = cacheEnabled && prompt.length() <= maxPromptLength;
+        if (!cacheable) {
+            bypassCounter.increment();
+        } else {
+            ChatCompletionResult cached = cache.get(key);
+            if (cached != null) {
+                log.info("Answering from cache: {}", key.prompt());
+                return cached.withoutUsage(); // Токены первого запроса этому пользователю не записываем
+            }
+        }
+
+        CompletableFuture<ChatCompletionResult> call = new CompletableFuture<>();
+        CompletableFuture<ChatCompletionResult> leader = inFlight.putIfAbsent(key, call);
+        if (leader != null) {
+            // Такой же запрос уже выполняется - ждем его (промежуточного текста у ведомых нет)
+            coalescedCounter.increment();
+            log.info("Joining in-flight request: {}", key.prompt());
+            return await(leader).withoutUsage();
+        }
+
+        try {
+            // Ведущий мог разминуться с предыдущим ведущим, который уже положил ответ в кэш
+            ChatCompletionResult result = cacheable ? cache.get(key) : null;
+            if (result != null) {
+                result = result.withoutUsage();
+            } else {
+                result = callOpenAI(prompt, onPartial);
+                if (cacheable && result.ok()) {
+                    cache.put(key, result);
+                }
+            }
+            call.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, call);
+        }
+    }
+
+    private ChatCompletionResult callOpenAI(String prompt, Consumer<CharSequence> onPartial) {
+        return onPartial != null
+                ? openAIService.streamChatResponse(prompt, onPartial)
+                : openAIService.getChatResponse(prompt);
+    }
+
+    private static ChatCompletionResult await(CompletableFuture<ChatCompletionResult> leader) {
+        try {
+            return leader.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ChatCompletionResult.failure(BotMessages.AI_ERROR);
+        } catch (ExecutionException e) {
+            log.error("Coalesced OpenAI request failed", e.getCause());
+            return ChatCompletionResult.failure(BotMessages.AI_ERROR);
+        }
+    }
+
+    /**
+     * Удаляет закэшированные ответы на запрос (для всех моделей и temperature)
+     *
+     * @return сколько записей удалено
+     */
+    public int invalidate(String prompt) {
+        String normalized = normalize(prompt);
+        return cache.invalidateIf(key -> key.prompt().equals(normalized));
+    }
+
+    public int invalidateAll() {
+        return cache.invalidateAll();
+    }
+
+    /**
+     * Статистика кэша для админки
+     */
+    public Map<String, Object> getCacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", cacheEnabled);
+        stats.put("size", cache.size());
+        stats.put("maxSize", cacheMaxSize);
+        stats.put("hits", cache.hitCount());
+        stats.put("misses", cache.missCount());
+        stats.put("bypassed", (long) bypassCounter.count());
+        stats.put("evictedBySize", cache.sizeEvictionCount());
+        stats.put("expired", cache.expirationCount());
+        stats.put("coalesced", (long) coalescedCounter.count());
+        return stats;
+    }
+
+    /**
+     * Ключ запроса для кэша и объединения одновременных запросов
+     */
+    private CacheKey requestKey(String prompt) {
+        String normalized = normalize(prompt);
+        if (normalized.isEmpty()) {
+            return null;
+        }
+        return new CacheKey(openAIService.getModel(), openAIService.getTemperature(), normalized);
+    }
+
+    /**
+     * "  Что ты УМЕЕШЬ?? " и "что ты умеешь" - один и тот же запрос
+     * Регистр, ё/е, повторные пробелы и знаки препинания в конце не учитываются
+     */
+    static String normalize(String prompt) {
+        StringBuilder normalized = new StringBuilder(prompt.length());
+        boolean pendingSpace = false;
+        for (int i = 0; i < prompt.length(); i++) {
+            char c = prompt.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = normalized.length() > 0;
+                continue;
+            }
+            if (pendingSpace) {
+                normalized.append(' ');
+                pendingSpace = false;
+            }
+            c = Character.toLowerCase(c);
+            normalized.append(c == 'ё' ? 'е' : c);
+        }
+
+        int end = normalized.length();
+        while (end > 0 && isTrailingPunctuation(normalized.charAt(end - 1))) {
+            end--;
+        }
+        normalized.setLength(end);
+        return normalized.toString();
+    }
+
+    private static boolean isTrailingPunctuation(char c) {
+        return c == '?' || c == '!' || c == '.' || c == ',' || c == '…' || c == ' ';
+    }
+
+    private record CacheKey(String model, double temperature, String prompt) {
+    }
+}
@@ -0,0 +1,218 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Диспетчер AI задач с "почтовым ящиком" на каждый чат
+ * Сообщения одного чата выполняются строго по очереди (FIFO),
+ * разные чаты выполняются параллельно в общем AiTaskExecutor.
+ * Пустой ящик сразу удаляется, так что память занимают только активные чаты
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChatMailboxDispatcher {
+
+    private final AiTaskExecutor aiTaskExecutor;
+    private final TelegramMessageService messageService;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.mailbox.max-pending:5}")
+    private int maxPendingPerChat; // Сколько сообщений одного чата может ждать в очереди
+
+    private final ConcurrentHashMap<Long, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    @PostConstruct
+    public void init() {
+        Gauge.builder("bot.ai.mailbox.active", mailboxes, ConcurrentHashMap::size)
+                .description("Чаты с незавершенными AI задачами")
+                .register(meterRegistry);
+        Gauge.builder("bot.ai.mailbox.pending", pendingTasks, AtomicInteger::get)
+                .description("AI задачи, ожидающие в очередях чатов")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Ставит задачу в очередь чата
+     * Если ящик чата простаивал - запускает его обработку в общем пуле
+     */
+    public void dispatch(Long chatId, Runnable task) {
+        dispatch(chatId, task, null);
+    }
+
+    /**
+     * Ставит задачу в очередь чата
+     *
+     * @param onDone вызывается, когда задача выполнена (успешно или нет) или отброшена;
+     *               по нему журнал и polling понимают, что обновление можно больше не хранить
+     */
+    public void dispatch(Long chatId, Runnable task, Runnable onDone) {
+        Task entry = new Task(task, onDone);
+        while (true) {
+            Mailbox mailbox = mailboxes.computeIfAbsent(chatId, Mailbox::new);
+
+            switch (mailbox.offer(entry)) {
+                case SCHEDULE:
+                    if (!aiTaskExecutor.submit(chatId, mailbox::drain)) {
+                        mailbox.abort();
+                    }
+                    return;
+                case QUEUED:
+                    return;
+                case FULL:
+                    log.warn("Mailbox of chat {} is full, dropping message", chatId);
+                    messageService.sendMessage(chatId, BotMessages.CHAT_BUSY);
+                    entry.done();
+                    return;
+                case CLOSED:
+                default:
+                    // Ящик закрылся между computeIfAbsent и offer - берем новый
+            }
+        }
+    }
+
+    /**
+     * Количество задач, ожидающих в ящиках чатов
+     */
+    public int getPendingCount() {
+        return pendingTasks.get();
+    }
+
+    private record Task(Runnable task, Runnable onDone) {
+
+        void done() {
+            if (onDone == null) {
+                return;
+            }
+            try {
+                onDone.run();
+            } catch (RuntimeException e) {
+                log.error("Error in mailbox task completion callback", e);
+            }
+        }
+    }
+
+    private enum OfferResult {
+        SCHEDULE, // Ящик простаивал - нужно запустить обработку
+        QUEUED, // Ящик уже обрабатывается - задача выполнится следом
+        FULL, // Слишком много сообщений от чата
+        CLOSED // Ящик уже удален из карты
+    }
+
+    /**
+     * Очередь одного чата
+     * Блокировка берется только на время offer/poll и только внутри одного чата
+     */
+    private final class Mailbox {
+
+        private final Long chatId;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private boolean running;
+        private boolean closed;
+
+        private Mailbox(Long chatId) {
+            this.chatId = chatId;
+        }
+
+        synchronized OfferResult offer(Task task) {
+            if (closed) {
+                return OfferResult.CLOSED;
+            }
+            if (tasks.size() >= maxPendingPerChat) {
+                return OfferResult.FULL;
+            }
+            tasks.add(task);
+            pendingTasks.incrementAndGet();
+
+            if (running) {
+                return OfferResult.QUEUED;
+            }
+            running = true;
+            return OfferResult.SCHEDULE;
+        }
+
+        /**
+         * Выполняет задачи чата по очереди, пока ящик не опустеет
+         */
+        void drain() {
+            boolean drained = false;
+            try {
+                while (true) {
+                    Task task;
+                    synchronized (this) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            close();
+                            drained = true;
+                            return;
+                        }
+                    }
+                    pendingTasks.decrementAndGet();
+
+                    try {
+                        task.task().run();
+                    } catch (RuntimeException e) {
+                        log.error("Unhandled error in mailbox task for chat {}", chatId, e);
+                    } finally {
+                        task.done();
+                    }
+                }
+            } finally {
+                if (!drained) {
+                    resume();
+                }
+            }
+        }
+
+        /**
+         * Задача бросила Error: ящик не должен остаться "занятым" навсегда,
+         * поэтому оставшиеся задачи запускаются заново (или ящик закрывается, если их нет)
+         */
+        private void resume() {
+            log.error("Mailbox of chat {} stopped by an error, resuming remaining tasks", chatId);
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    close();
+                    return;
+                }
+            }
+            if (!aiTaskExecutor.submit(chatId, this::drain)) {
+                abort();
+            }
+        }
+
+        /**
+         * Пул отказал в запуске - пользователь уже получил ответ "бот занят",
+         * поэтому накопленные задачи отбрасываются
+         */
+        void abort() {
+            Task[] dropped;
+            synchronized (this) {
+                pendingTasks.addAndGet(-tasks.size());
+                dropped = tasks.toArray(new Task[0]);
+                tasks.clear();
+                close();
+            }
+            for (Task task : dropped) {
+                task.done();
+            }
+        }
+
+        private void close() {
+            running = false;
+            closed = true;
+            mailboxes.remove(chatId, this);
+        }
+    }
+}
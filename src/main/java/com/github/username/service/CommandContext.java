@@ -0,0 +1,51 @@
+package com.github.username.service;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Данные вызова команды: кто вызвал и с какими аргументами
+ * Например, для "/buy@MyBot 50" команда - "buy", аргументы - "50"
+ */
+@Getter
+@RequiredArgsConstructor
+public class CommandContext {
+
+    private final Long chatId;
+    private final String firstName;
+    private final String command; // Имя команды без "/" и без @username бота
+    private final String args; // Текст после команды (может быть пустым)
+    private final TelegramMessageService messageService;
+    private final boolean inlineAllowed; // Ответ можно вернуть в теле ответа на webhook
+
+    private String inlineReply;
+    private boolean inlineClosed; // Inline ответ уже использован или отдан контроллеру
+
+    /**
+     * Отправляет ответ в чат, из которого пришла команда
+     * Если разрешено, первый ответ не отправляется, а запоминается для ответа на webhook
+     */
+    public void reply(String text) {
+        if (inlineAllowed && !inlineClosed && inlineReply == null && text.length() <= TelegramMessageService.MAX_MESSAGE_LENGTH) {
+            inlineReply = text;
+            return;
+        }
+        if (inlineReply != null) {
+            // Второй ответ: отложенный первый отправляем обычным путем, чтобы сохранить порядок
+            messageService.sendMessage(chatId, inlineReply);
+            inlineReply = null;
+        }
+        inlineClosed = true;
+        messageService.sendMessage(chatId, text);
+    }
+
+    /**
+     * Ответ, который нужно вернуть Telegram в теле ответа на webhook (null - если его нет)
+     */
+    public String takeInlineReply() {
+        String text = inlineReply;
+        inlineReply = null;
+        inlineClosed = true;
+        return text;
+    }
+}
@@ -0,0 +1,11 @@
+package com.github.username.service;
+
+/**
+ * Обработчик одной команды бота (/start, /help и т.д.)
+ * Регистрируется в CommandRegistry один раз при старте приложения
+ */
+@FunctionalInterface
+public interface CommandHandler {
+
+    void handle(CommandContext context);
+}
@@ -0,0 +1,131 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Таблица команд бота
+ * Обработчики и их таймеры создаются один раз при старте,
+ * разбор текста команды - без регулярных выражений
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CommandRegistry {
+
+    private final MeterRegistry meterRegistry;
+    private final TelegramMessageService messageService;
+
+    @Value("${bot.username:}")
+    private String botUsername; // Если задан - команды вида /start@OtherBot игнорируются
+
+    private final Map<String, RegisteredCommand> commands = new ConcurrentHashMap<>();
+    private volatile RegisteredCommand fallback;
+
+    /**
+     * Регистрирует обработчик команды
+     *
+     * @param name имя команды без "/", например "start"
+     */
+    public void register(String name, CommandHandler handler) {
+        String key = name.toLowerCase(Locale.ROOT);
+        commands.put(key, new RegisteredCommand(handler, timer(key), false));
+    }
+
+    /**
+     * Регистрирует команду со статическим ответом
+     * Пришедшая через webhook, она отвечает прямо в теле ответа Telegram (см. UpdateDispatcher.dispatchWebhook)
+     */
+    public void registerStatic(String name, CommandHandler handler) {
+        String key = name.toLowerCase(Locale.ROOT);
+        commands.put(key, new RegisteredCommand(handler, timer(key), true));
+    }
+
+    /**
+     * Обработчик для неизвестных команд
+     */
+    public void registerFallback(CommandHandler handler) {
+        fallback = new RegisteredCommand(handler, timer("unknown"), false);
+    }
+
+    /**
+     * Разбирает и выполняет команду
+     *
+     * @param text текст сообщения, начинающийся с "/"
+     * @return false если команда адресована другому боту и была пропущена
+     */
+    public boolean execute(Long chatId, String firstName, String text) {
+        return execute(chatId, firstName, text, false) != null;
+    }
+
+    /**
+     * Разбирает и выполняет команду
+     *
+     * @param allowInline можно ли вернуть ответ статической команды вместо отправки
+     * @return контекст выполненной команды или null, если команда адресована другому боту
+     */
+    public CommandContext execute(Long chatId, String firstName, String text, boolean allowInline) {
+        // "/buy_10@MyBot аргументы" -> токен "buy_10@MyBot", аргументы "аргументы"
+        int tokenEnd = indexOfWhitespace(text);
+        String token = text.substring(1, tokenEnd);
+        String args = tokenEnd < text.length() ? text.substring(tokenEnd + 1).trim() : "";
+
+        int mention = token.indexOf('@');
+        if (mention >= 0) {
+            String addressee = token.substring(mention + 1);
+            if (!botUsername.isEmpty() && !botUsername.equalsIgnoreCase(addressee)) {
+                return null;
+            }
+            token = token.substring(0, mention);
+        }
+
+        String name = token.toLowerCase(Locale.ROOT);
+        RegisteredCommand command = commands.getOrDefault(name, fallback);
+        CommandContext context = new CommandContext(chatId, firstName, name, args, messageService,
+                allowInline && command != null && command.inlineEligible);
+        if (command == null) {
+            log.warn("No handler for command /{}", name);
+            return context;
+        }
+
+        command.timer.record(() -> command.handler.handle(context));
+        return context;
+    }
+
+    private Timer timer(String command) {
+        return Timer.builder("bot.command.latency")
+                .description("Время обработки команды бота")
+                .tag("command", command)
+                .register(meterRegistry);
+    }
+
+    private static int indexOfWhitespace(String text) {
+        for (int i = 1; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                return i;
+            }
+        }
+        return text.length();
+    }
+
+    private static final class RegisteredCommand {
+
+        private final CommandHandler handler;
+        private final Timer timer;
+        private final boolean inlineEligible;
+
+        private RegisteredCommand(CommandHandler handler, Timer timer, boolean inlineEligible) {
+            this.handler = handler;
+            this.timer = timer;
+            this.inlineEligible = inlineEligible;
+        }
+    }
+}
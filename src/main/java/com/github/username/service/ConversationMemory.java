@@ -0,0 +1,197 @@
+package com.github.username.service;
+
+import com.github.username.dto.ChatMessage;
+import com.github.username.entity.UsageHistory;
+import com.github.username.entity.User;
+import com.github.username.repository.UsageRepository;
+import com.github.username.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Контекст диалога для каждого чата
+ * Хранит последние реплики в кольцевом буфере и держит их суммарный размер в пределах бюджета токенов.
+ * Токены реплики считаются один раз при добавлении, поэтому запрос не пересчитывает всю историю.
+ *
+ * Диалоги живут в памяти; давно неактивные чаты вытесняются (LRU + время жизни),
+ * а при следующем сообщении контекст восстанавливается из usage_history
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ConversationMemory {
+
+    private static final LocalDateTime NEVER_RESET = LocalDateTime.of(2000, 1, 1, 0, 0);
+
+    private final UsageRepository usageRepository;
+    private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final TokenCounter tokenCounter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${ai.memory.enabled:true}")
+    private boolean enabled;
+
+    @Value("${ai.memory.max-turns:10}")
+    private int maxTurns; // Пар "вопрос-ответ" в буфере
+
+    @Value("${ai.memory.token-budget:2000}")
+    private int tokenBudget; // Сколько токенов истории отправлять вместе с новым вопросом
+
+    @Value("${ai.memory.max-chats:10000}")
+    private int maxChats;
+
+    @Value("${ai.memory.idle-minutes:60}")
+    private long idleMinutes;
+
+    private TtlLruCache<Long, Conversation> conversations;
+    private Counter restoredCounter;
+
+    @PostConstruct
+    public void init() {
+        conversations = new TtlLruCache<>(maxChats, idleMinutes, TimeUnit.MINUTES);
+
+        Gauge.builder("ai.memory.chats", conversations, TtlLruCache::size)
+                .description("Чаты с контекстом диалога в памяти")
+                .register(meterRegistry);
+        FunctionCounter.builder("ai.memory.evictions", conversations,
+                        cache -> cache.sizeEvictionCount() + cache.expirationCount())
+                .description("Контексты неактивных чатов, вытесненные из памяти")
+                .register(meterRegistry);
+        restoredCounter = Counter.builder("ai.memory.restored")
+                .description("Контексты, восстановленные из usage_history")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Предыдущие реплики чата в формате OpenAI (старые первыми)
+     */
+    public List<ChatMessage> history(User user) {
+        if (!enabled) {
+            return List.of();
+        }
+        return conversation(user).messages();
+    }
+
+    /**
+     * Добавляет завершенную пару "вопрос-ответ"
+     */
+    public void append(User user, String question, String answer) {
+        if (!enabled) {
+            return;
+        }
+        Conversation conversation = conversation(user);
+        conversation.add(new Turn(question, answer,
+                tokenCounter.countMessage(question) + tokenCounter.countMessage(answer)), tokenBudget);
+        conversations.put(user.getChatId(), conversation); // Продлеваем время жизни
+    }
+
+    /**
+     * Забывает контекст чата (/reset)
+     * Время сброса сохраняется у пользователя, чтобы контекст не восстановился из usage_history.
+     * Вызывается из очереди чата, поэтому не пересекается с обработкой сообщений этого чата
+     */
+    public void reset(Long chatId) {
+        conversations.put(chatId, new Conversation(maxTurns));
+        // Целевой UPDATE: save прочитанной копии затер бы баланс и счетчики, измененные за это время
+        if (userRepository.setContextResetAt(chatId, LocalDateTime.now()) == 1) {
+            userCache.invalidate(chatId);
+        }
+    }
+
+    private Conversation conversation(User user) {
+        Conversation conversation = conversations.get(user.getChatId());
+        if (conversation == null) {
+            conversation = restore(user);
+            conversations.put(user.getChatId(), conversation);
+        }
+        return conversation;
+    }
+
+    private Conversation restore(User user) {
+        Conversation conversation = new Conversation(maxTurns);
+        LocalDateTime after = user.getContextResetAt() != null ? user.getContextResetAt() : NEVER_RESET;
+        List<UsageHistory> recent = usageRepository.findByUserChatIdAndCreatedAtAfterOrderByCreatedAtDesc(
+                user.getChatId(), after, PageRequest.of(0, maxTurns));
+
+        for (int i = recent.size() - 1; i >= 0; i--) {
+            UsageHistory row = recent.get(i);
+            if (row.getMessage() == null || row.getResponse() == null) {
+                continue;
+            }
+            conversation.add(new Turn(row.getMessage(), row.getResponse(),
+                    tokenCounter.countMessage(row.getMessage()) + tokenCounter.countMessage(row.getResponse())),
+                    tokenBudget);
+        }
+
+        if (!recent.isEmpty()) {
+            restoredCounter.increment();
+            log.debug("Restored {} turns for chat {} from usage history", recent.size(), user.getChatId());
+        }
+        return conversation;
+    }
+
+    private record Turn(String question, String answer, int tokens) {
+    }
+
+    /**
+     * Кольцевой буфер реплик с суммой токенов
+     */
+    private static final class Conversation {
+
+        private final Turn[] turns;
+        private int head; // Индекс самой старой реплики
+        private int size;
+        private int tokens;
+
+        private Conversation(int capacity) {
+            this.turns = new Turn[capacity];
+        }
+
+        synchronized void add(Turn turn, int tokenBudget) {
+            if (turns.length == 0) {
+                return;
+            }
+            if (size == turns.length) {
+                dropOldest();
+            }
+            turns[(head + size) % turns.length] = turn;
+            size++;
+            tokens += turn.tokens();
+
+            while (tokens > tokenBudget && size > 0) {
+                dropOldest();
+            }
+        }
+
+        synchronized List<ChatMessage> messages() {
+            List<ChatMessage> messages = new ArrayList<>(size * 2 + 1); // +1 под новый вопрос
+            for (int i = 0; i < size; i++) {
+                Turn turn = turns[(head + i) % turns.length];
+                messages.add(ChatMessage.user(turn.question()));
+                messages.add(ChatMessage.assistant(turn.answer()));
+            }
+            return messages;
+        }
+
+        private void dropOldest() {
+            tokens -= turns[head].tokens();
+            turns[head] = null;
+            head = (head + 1) % turns.length;
+            size--;
+        }
+    }
+}
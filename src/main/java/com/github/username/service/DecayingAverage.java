@@ -0,0 +1,62 @@
+package com.github.username.service;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongSupplier;
+
+/**
+ * Экспоненциальное скользящее среднее, которое затухает со временем
+ * Если новых замеров нет, значение уменьшается вдвое каждые halfLife -
+ * иначе после одного медленного периода среднее "застрянет" высоким навсегда.
+ * Новый замер смешивается уже с затухшим значением.
+ * Без блокировок: значение и время замера меняются вместе через CAS
+ */
+class DecayingAverage {
+
+    private final double alpha;
+    private final long halfLifeNanos;
+    private final LongSupplier nanoClock;
+
+    private final AtomicReference<State> state = new AtomicReference<>();
+
+    private record State(double value, long atNanos) {
+    }
+
+    DecayingAverage(double alpha, long halfLife, TimeUnit unit) {
+        this(alpha, halfLife, unit, System::nanoTime);
+    }
+
+    DecayingAverage(double alpha, long halfLife, TimeUnit unit, LongSupplier nanoClock) {
+        this.alpha = alpha;
+        this.halfLifeNanos = unit.toNanos(halfLife);
+        this.nanoClock = nanoClock;
+    }
+
+    void record(double sample) {
+        State current;
+        State updated;
+        do {
+            current = state.get();
+            long now = nanoClock.getAsLong();
+            if (current == null) {
+                updated = new State(sample, now);
+            } else {
+                double decayed = decayed(current, now);
+                updated = new State(decayed + alpha * (sample - decayed), now);
+            }
+        } while (!state.compareAndSet(current, updated));
+    }
+
+    double get() {
+        State current = state.get();
+        return current == null ? 0.0 : decayed(current, nanoClock.getAsLong());
+    }
+
+    private double decayed(State state, long now) {
+        long idleNanos = now - state.atNanos();
+        if (idleNanos <= 0) {
+            return state.value();
+        }
+        return state.value() * Math.pow(0.5, (double) idleNanos / halfLifeNanos);
+    }
+}
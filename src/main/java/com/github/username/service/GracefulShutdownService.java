@@ -0,0 +1,108 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Согласованная остановка бота при редеплое
+ *
+ * Порядок:
+ * 1. Прекращаем прием обновлений (polling, webhook, журнал)
+ * 2. Ждем завершения AI запросов, уже принятых в работу, не дольше дедлайна
+ * 3. Дожидаемся исходящих сообщений и отложенных записей в БД
+ * 4. Освобождаем poller и HTTP клиент бота
+ *
+ * Фаза максимальная - сервис останавливается раньше веб-сервера и остальных бинов
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GracefulShutdownService implements SmartLifecycle {
+
+    private final TelegramPollingService pollingService;
+    private final UpdateDispatcher updateDispatcher;
+    private final UpdateJournal updateJournal;
+    private final AiTaskExecutor aiTaskExecutor;
+    private final ChatMailboxDispatcher mailboxDispatcher;
+    private final OutboundMessageScheduler outboundScheduler;
+    private final QuotaLedgerService quotaLedgerService;
+    private final UsageHistoryWriter usageHistoryWriter;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bot.shutdown.drain-timeout-ms:30000}")
+    private long drainTimeoutMillis;
+
+    private volatile boolean running;
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        long startedAt = System.nanoTime();
+        log.info("🛑 Остановка бота: прекращаем прием обновлений");
+
+        // 1. Новые обновления больше не принимаем
+        pollingService.stopIngestion();
+        updateDispatcher.stopAccepting();
+        updateJournal.stop();
+
+        // 2. Ждем AI запросы, которые уже в работе
+        int pendingInMailboxes = mailboxDispatcher.getPendingCount();
+        int abandoned = aiTaskExecutor.drain(drainTimeoutMillis);
+        if (abandoned > 0) {
+            abandoned += mailboxDispatcher.getPendingCount();
+        }
+        log.info("AI executor drained: {} task(s) were waiting in chat mailboxes, {} abandoned",
+                pendingInMailboxes, abandoned);
+
+        // 3. Дожидаемся исходящих сообщений и пишем в БД счетчики лимита и историю из памяти
+        int unsent = outboundScheduler.flush(drainTimeoutMillis);
+        if (unsent > 0) {
+            log.warn("⚠️ {} исходящих сообщений не отправлено к дедлайну остановки", unsent);
+        }
+        int flushedUsers = quotaLedgerService.flush();
+        log.info("Quota ledger flushed on shutdown: {} users", flushedUsers);
+        int unwritten = usageHistoryWriter.flush(drainTimeoutMillis);
+        if (unwritten > 0) {
+            log.warn("⚠️ {} записей usage_history не записано к дедлайну остановки", unwritten);
+        }
+
+        // 4. Освобождаем poller
+        pollingService.release();
+
+        long drainNanos = System.nanoTime() - startedAt;
+        Timer.builder("bot.shutdown.drain.time")
+                .description("Длительность согласованной остановки")
+                .register(meterRegistry)
+                .record(drainNanos, TimeUnit.NANOSECONDS);
+        Counter.builder("bot.shutdown.abandoned")
+                .description("AI задачи, не завершенные к дедлайну остановки")
+                .register(meterRegistry)
+                .increment(abandoned);
+
+        log.info("✅ Бот остановлен за {} мс, брошено задач: {}",
+                TimeUnit.NANOSECONDS.toMillis(drainNanos), abandoned);
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * HTTP транспорт для OpenAI API
+ * Один java.net.http.HttpClient на все запросы: keep-alive соединения переиспользуются,
+ * по HTTP/2 параллельные запросы идут через одно соединение.
+ *
+ * Таймауты:
+ * - connect - установка соединения
+ * - read - ожидание заголовков ответа (без стрима OpenAI присылает их вместе с готовым ответом)
+ * - deadline - весь запрос, включая чтение потокового ответа; по истечении поток закрывается
+ *
+ * Базовый URL настраивается, чтобы в тестах подставлять локальную заглушку
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OpenAIHttpClient {
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${openai.api.key:}")
+    private String openaiApiKey;
+
+    @Value("${openai.api.base-url:https://api.openai.com/v1}")
+    private String baseUrl;
+
+    @Value("${openai.http.connect-timeout-ms:5000}")
+    private long connectTimeoutMillis;
+
+    @Value("${openai.http.read-timeout-ms:60000}")
+    private long readTimeoutMillis;
+
+    @Value("${openai.http.deadline-ms:90000}")
+    private long deadlineMillis;
+
+    @Value("${openai.http.prewarm:true}")
+    private boolean prewarm; // Открыть соединение заранее, чтобы первый запрос не платил за TCP и TLS
+
+    private HttpClient httpClient;
+    private ScheduledExecutorService deadlineTimer;
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private Counter successCounter;
+    private Counter errorStatusCounter;
+    private Counter timeoutCounter;
+    private Counter ioErrorCounter;
+
+    @PostConstruct
+    public void init() {
+        httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(Duration.ofMillis(connectTimeoutMillis))
+                .build();
+
+        deadlineTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "openai-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Gauge.builder("openai.http.in-flight", inFlight, AtomicInteger::get)
+                .description("Запросы к OpenAI, ожидающие ответа")
+                .register(meterRegistry);
+        successCounter = outcomeCounter("success");
+        errorStatusCounter = outcomeCounter("error_status");
+        timeoutCounter = outcomeCounter("timeout");
+        ioErrorCounter = outcomeCounter("io_error");
+
+        if (prewarm && openaiApiKey != null && !openaiApiKey.isEmpty()) {
+            prewarmConnection();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deadlineTimer.shutdownNow();
+    }
+
+    /**
+     * POST с JSON телом, ответ читается целиком
+     *
+     * @param path путь относительно базового URL, например "/chat/completions"
+     * @throws HttpTimeoutException если не уложились в дедлайн
+     */
+    public HttpResponse<byte[]> post(String path, byte[] json) throws IOException {
+        HttpResponse<byte[]> response = await(
+                httpClient.sendAsync(request(path, json), HttpResponse.BodyHandlers.ofByteArray()));
+        countStatus(response.statusCode());
+        return response;
+    }
+
+    /**
+     * POST с JSON телом для потокового ответа
+     * Поток нужно закрыть; если чтение не уложилось в дедлайн, поток закрывается принудительно
+     *
+     * @return тело ответа
+     * @throws IOException если OpenAI ответил ошибкой (статус и тело - в сообщении)
+     */
+    public InputStream postStream(String path, byte[] json) throws IOException {
+        long startedAt = System.nanoTime();
+        HttpResponse<InputStream> response = await(
+                httpClient.sendAsync(request(path, json), HttpResponse.BodyHandlers.ofInputStream()));
+        countStatus(response.statusCode());
+
+        if (response.statusCode() >= 400) {
+            try (InputStream error = response.body()) {
+                throw new IOException("OpenAI returned status " + response.statusCode() + ": "
+                        + new String(error.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+
+        long remainingNanos = TimeUnit.MILLISECONDS.toNanos(deadlineMillis) - (System.nanoTime() - startedAt);
+        InputStream body = response.body();
+        ScheduledFuture<?> deadline = deadlineTimer.schedule(() -> {
+            timeoutCounter.increment();
+            log.warn("OpenAI stream exceeded deadline of {} ms, closing", deadlineMillis);
+            closeQuietly(body);
+        }, Math.max(0, remainingNanos), TimeUnit.NANOSECONDS);
+
+        return new FilterInputStream(body) {
+            @Override
+            public void close() throws IOException {
+                deadline.cancel(false);
+                super.close();
+            }
+        };
+    }
+
+    private HttpRequest request(String path, byte[] json) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .timeout(Duration.ofMillis(readTimeoutMillis))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + openaiApiKey)
+                .POST(HttpRequest.BodyPublishers.ofByteArray(json))
+                .build();
+    }
+
+    private <T> HttpResponse<T> await(CompletableFuture<HttpResponse<T>> future) throws IOException {
+        inFlight.incrementAndGet();
+        try {
+            return future.get(deadlineMillis, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            timeoutCounter.increment();
+            throw new HttpTimeoutException("OpenAI request exceeded deadline of " + deadlineMillis + " ms");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof HttpTimeoutException timeout) {
+                timeoutCounter.increment();
+                throw timeout;
+            }
+            ioErrorCounter.increment();
+            if (e.getCause() instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException("OpenAI request failed", e.getCause());
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for OpenAI");
+        } finally {
+            inFlight.decrementAndGet();
+        }
+    }
+
+    /**
+     * Лёгкий запрос при старте: соединение и TLS сессия будут готовы к первому сообщению
+     */
+    private void prewarmConnection() {
+        long startedAt = System.nanoTime();
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/models"))
+                .timeout(Duration.ofMillis(readTimeoutMillis))
+                .header("Authorization", "Bearer " + openaiApiKey)
+                .GET()
+                .build();
+
+        httpClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                .whenComplete((response, error) -> {
+                    long elapsedNanos = System.nanoTime() - startedAt;
+                    if (error != null) {
+                        log.warn("OpenAI connection pre-warm failed: {}", error.getMessage());
+                        return;
+                    }
+                    Timer.builder("openai.http.prewarm")
+                            .description("Время установки первого соединения с OpenAI")
+                            .register(meterRegistry)
+                            .record(elapsedNanos, TimeUnit.NANOSECONDS);
+                    log.info("OpenAI connection pre-warmed in {} ms ({}, status {})",
+                            TimeUnit.NANOSECONDS.toMillis(elapsedNanos), response.version(), response.statusCode());
+                });
+    }
+
+    private void countStatus(int status) {
+        if (status >= 400) {
+            errorStatusCounter.increment();
+        } else {
+            successCounter.increment();
+        }
+    }
+
+    private Counter outcomeCounter(String outcome) {
+        return Counter.builder("openai.http.requests")
+                .description("Запросы к OpenAI по результату")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static void closeQuietly(InputStream stream) {
+        try {
+            stream.close();
+        } catch (IOException ignored) {
+            // Поток уже закрыт или соединение оборвано
+        }
+    }
+}
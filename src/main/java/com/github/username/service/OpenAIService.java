@@ -1,95 +1,245 @@
 package com.github.username.service;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.username.dto.ChatCompletionRequest;
+import com.github.username.dto.ChatCompletionResponse;
+import com.github.username.dto.ChatCompletionResult;
+import com.github.username.dto.ChatMessage;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.Getter;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Сервис для взаимодействия с OpenAI API
- * Отправляет запросы к ChatGPT и получает ответы
+ * Отправляет запросы к ChatGPT и получает ответы.
+ * Запросы и ответы - типизированные DTO; ObjectReader/ObjectWriter создаются один раз
  */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class OpenAIService {
 
-    private final RestTemplate restTemplate;
+    private static final String CHAT_COMPLETIONS_PATH = "/chat/completions";
+
+    private static final String NOT_CONFIGURED_MESSAGE = "❌ Сервис временно недоступен. Пожалуйста, попробуйте позже.";
+    private static final String ERROR_MESSAGE = "⚠️ Произошла ошибка при обращении к AI сервису. Пожалуйста, попробуйте позже.";
+    private static final String EMPTY_RESPONSE_MESSAGE = "Не удалось получить ответ от AI. Попробуйте еще раз.";
+
+    private final OpenAIHttpClient httpClient;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
 
     @Value("${openai.api.key:}")
     private String openaiApiKey;
 
+    @Getter
     @Value("${openai.model:gpt-3.5-turbo}")
     private String model;
 
+    @Getter
+    @Value("${openai.temperature:0.7}")
+    private double temperature; // Контроль случайности ответа
+
+    private ObjectWriter requestWriter;
+    private ObjectReader responseReader; // Им же читаются фрагменты потока
+
+    private Timer latencyTimer;
+    private Timer firstTokenTimer;
+    private final DecayingAverage recentLatency = new DecayingAverage(0.2, 30, TimeUnit.SECONDS);
+
+    @PostConstruct
+    public void init() {
+        requestWriter = objectMapper.writerFor(ChatCompletionRequest.class);
+        responseReader = objectMapper.readerFor(ChatCompletionResponse.class);
+
+        latencyTimer = Timer.builder("openai.request.latency")
+                .description("Время ответа OpenAI API")
+                .register(meterRegistry);
+        firstTokenTimer = Timer.builder("openai.request.first-token")
+                .description("Время до первого токена в потоковом режиме")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Недавнее среднее время ответа OpenAI, мс
+     * Используется AdmissionController, чтобы не принимать новую работу, когда OpenAI тормозит
+     */
+    public double getRecentLatencyMillis() {
+        return recentLatency.get();
+    }
+
     /**
      * Отправляет запрос к OpenAI API и возвращает ответ
      *
      * @param message текст запроса от пользователя
-     * @return ответ от AI
+     * @return ответ от AI с числом токенов по данным OpenAI
      */
-    public String getChatResponse(String message) {
+    public ChatCompletionResult getChatResponse(String message) {
+        return getChatResponse(List.of(ChatMessage.user(message)));
+    }
+
+    /**
+     * Отправляет диалог к OpenAI API и возвращает ответ
+     *
+     * @param messages предыдущие реплики и последним - запрос пользователя
+     * @return ответ от AI с числом токенов по данным OpenAI
+     */
+    public ChatCompletionResult getChatResponse(List<ChatMessage> messages) {
         // Проверяем, установлен ли API ключ
         if (openaiApiKey == null || openaiApiKey.isEmpty()) {
             log.error("OpenAI API key is not configured");
-            return "❌ Сервис временно недоступен. Пожалуйста, попробуйте позже.";
+            return ChatCompletionResult.failure(NOT_CONFIGURED_MESSAGE);
         }
 
-        String url = "https://api.openai.com/v1/chat/completions";
+        long startedAt = System.nanoTime();
+        try {
+            log.info("Sending request to OpenAI API for message: {} ({} messages)",
+                    preview(messages), messages.size());
+
+            // Отправляем POST запрос к OpenAI API
+            HttpResponse<byte[]> response;
+            try {
+                response = httpClient.post(CHAT_COMPLETIONS_PATH, requestWriter.writeValueAsBytes(buildRequest(messages)));
+            } finally {
+                long elapsedNanos = System.nanoTime() - startedAt;
+                latencyTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+                recentLatency.record(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+            }
+
+            if (response.statusCode() >= 400) {
+                log.error("OpenAI API returned status {}: {}", response.statusCode(),
+                        new String(response.body(), StandardCharsets.UTF_8));
+                return ChatCompletionResult.failure(ERROR_MESSAGE);
+            }
+
+            ChatCompletionResponse completion = responseReader.readValue(response.body());
+            String content = completion.firstContent();
+            if (content == null) {
+                log.warn("Unexpected response format from OpenAI: {}", completion);
+                return ChatCompletionResult.failure(EMPTY_RESPONSE_MESSAGE);
+            }
+
+            log.info("Successfully received response from OpenAI");
+            return ChatCompletionResult.success(content, completion.usage());
 
-        // Настраиваем заголовки HTTP запроса
-        HttpHeaders headers = new HttpHeaders();
-        headers.setContentType(MediaType.APPLICATION_JSON);
-        headers.setBearerAuth(openaiApiKey);
+        } catch (Exception e) {
+            log.error("Error calling OpenAI API", e);
+            return ChatCompletionResult.failure(ERROR_MESSAGE);
+        }
+    }
 
-        // Формируем тело запроса согласно OpenAI API
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("model", model);
-        requestBody.put("messages", new Object[]{
-                Map.of("role", "user", "content", message)
-        });
-        requestBody.put("max_tokens", 1000); // Ограничение длины ответа
-        requestBody.put("temperature", 0.7); // Контроль случайности ответа
+    /**
+     * Потоковый вариант getChatResponse (stream: true, ответ приходит как SSE)
+     * Время до первого токена пишется отдельно от полного времени ответа
+     *
+     * @param message   текст запроса от пользователя
+     * @param onPartial получает накопленный текст после каждого фрагмента
+     * @return полный ответ от AI; usage приходит последним фрагментом потока
+     */
+    public ChatCompletionResult streamChatResponse(String message, Consumer<CharSequence> onPartial) {
+        return streamChatResponse(List.of(ChatMessage.user(message)), onPartial);
+    }
 
-        // Создаем HTTP entity с заголовками и телом
-        HttpEntity<Map<String, Object>> entity = new HttpEntity<>(requestBody, headers);
+    /**
+     * Потоковый вариант getChatResponse для диалога
+     */
+    public ChatCompletionResult streamChatResponse(List<ChatMessage> messages, Consumer<CharSequence> onPartial) {
+        if (openaiApiKey == null || openaiApiKey.isEmpty()) {
+            log.error("OpenAI API key is not configured");
+            return ChatCompletionResult.failure(NOT_CONFIGURED_MESSAGE);
+        }
 
+        StringBuilder text = new StringBuilder();
+        ChatCompletionResponse.Usage usage;
+        long startedAt = System.nanoTime();
         try {
-            log.info("Sending request to OpenAI API for message: {}",
-                    message.substring(0, Math.min(50, message.length())));
+            log.info("Streaming request to OpenAI API for message: {} ({} messages)",
+                    preview(messages), messages.size());
 
-            // Отправляем POST запрос к OpenAI API
-            ResponseEntity<Map> response = restTemplate.exchange(
-                    url, HttpMethod.POST, entity, Map.class);
+            byte[] body = requestWriter.writeValueAsBytes(buildRequest(messages).streaming());
+            try (InputStream stream = httpClient.postStream(CHAT_COMPLETIONS_PATH, body)) {
+                usage = readEvents(stream, text, onPartial, startedAt);
+            }
 
-            Map<String, Object> responseBody = response.getBody();
+        } catch (Exception e) {
+            log.error("Error streaming from OpenAI API", e);
+            return ChatCompletionResult.failure(ERROR_MESSAGE);
+        } finally {
+            long elapsedNanos = System.nanoTime() - startedAt;
+            latencyTimer.record(elapsedNanos, TimeUnit.NANOSECONDS);
+            recentLatency.record(TimeUnit.NANOSECONDS.toMillis(elapsedNanos));
+        }
 
-            // Извлекаем текст ответа из JSON структуры
-            if (responseBody != null && responseBody.containsKey("choices")) {
-                java.util.List<Map<String, Object>> choices =
-                        (java.util.List<Map<String, Object>>) responseBody.get("choices");
+        if (text.length() == 0) {
+            log.warn("OpenAI stream finished without content");
+            return ChatCompletionResult.failure(EMPTY_RESPONSE_MESSAGE);
+        }
 
-                if (!choices.isEmpty()) {
-                    Map<String, Object> choice = choices.get(0);
-                    Map<String, Object> messageObj = (Map<String, Object>) choice.get("message");
-                    String content = (String) messageObj.get("content");
+        log.info("Successfully received streamed response from OpenAI");
+        return ChatCompletionResult.success(text.toString(), usage);
+    }
 
-                    log.info("Successfully received response from OpenAI");
-                    return content;
-                }
+    /**
+     * Читает SSE поток: строки "data: {...}" с фрагментами ответа и "data: [DONE]" в конце
+     *
+     * @return usage из последнего фрагмента или null
+     */
+    private ChatCompletionResponse.Usage readEvents(InputStream body, StringBuilder text,
+                                                    Consumer<CharSequence> onPartial, long startedAt) throws IOException {
+        ChatCompletionResponse.Usage usage = null;
+        BufferedReader reader = new BufferedReader(new InputStreamReader(body, StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (!line.startsWith("data:")) {
+                continue; // Пустые строки-разделители и комментарии SSE
+            }
+            String data = line.substring(5).trim();
+            if (data.equals("[DONE]")) {
+                break;
             }
 
-            log.warn("Unexpected response format from OpenAI: {}", responseBody);
-            return "Не удалось получить ответ от AI. Попробуйте еще раз.";
+            ChatCompletionResponse chunk = responseReader.readValue(data);
+            if (chunk.usage() != null) {
+                usage = chunk.usage();
+            }
+            String content = chunk.firstContent();
+            if (content == null || content.isEmpty()) {
+                continue;
+            }
 
-        } catch (Exception e) {
-            log.error("Error calling OpenAI API", e);
-            return "⚠️ Произошла ошибка при обращении к AI сервису. Пожалуйста, попробуйте позже.";
+            if (text.length() == 0) {
+                firstTokenTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+            }
+            text.append(content);
+            onPartial.accept(text);
         }
+        return usage;
+    }
+
+    private ChatCompletionRequest buildRequest(List<ChatMessage> messages) {
+        // max_tokens - ограничение длины ответа
+        return ChatCompletionRequest.of(model, messages, 1000, temperature);
+    }
+
+    private static String preview(List<ChatMessage> messages) {
+        String last = messages.get(messages.size() - 1).content();
+        return last.substring(0, Math.min(50, last.length()));
     }
 }
@@ -0,0 +1,443 @@
+package com.github.username.service;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.BaseRequest;
+import com.pengrad.telegrambot.response.BaseResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Очередь исходящих запросов к Telegram с учетом лимитов
+ * Telegram допускает ~30 сообщений в секунду на бота и ~1 в секунду в один чат,
+ * при превышении отвечает 429. Здесь два уровня ограничения:
+ * - на чат: очередь FIFO и не больше одного запроса в полете; следующий запрос чата ставится
+ *   в очередь отправки только после ответа на предыдущий и не раньше слота ограничителя чата,
+ *   поэтому части длинного ответа и повторы не перемешиваются
+ * - глобальный: проверяется прямо перед отправкой, так что при нехватке лимита первыми уходят платежи
+ *
+ * Оба ограничителя - GCRA на одном AtomicLong, без блокировок
+ *
+ * Отправка асинхронная (callback API pengrad), повторы планируются на таймере:
+ * - 429: ждем parameters.retry_after; повтор остается первым в очереди чата, остальные ждут его
+ * - 5xx и сетевые ошибки: экспоненциальная пауза со случайным разбросом
+ * Повтор, который не успевает до дедлайна сообщения, не выполняется.
+ * Ни один поток не спит в ожидании повтора
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class OutboundMessageScheduler {
+
+    private final TelegramBot bot;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bot.outbound.global-rate:30}")
+    private int globalRatePerSecond;
+
+    @Value("${bot.outbound.chat-interval-ms:1000}")
+    private long chatIntervalMillis; // Средний интервал между сообщениями в один чат
+
+    @Value("${bot.outbound.chat-burst:3}")
+    private int chatBurst; // Сколько сообщений подряд можно отправить в чат без паузы
+
+    @Value("${bot.outbound.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${bot.outbound.deadline-ms:60000}")
+    private long deadlineMillis; // Сколько сообщение может ждать отправки вместе с повторами
+
+    @Value("${bot.outbound.retry-base-ms:500}")
+    private long retryBaseMillis;
+
+    @Value("${bot.outbound.retry-max-ms:10000}")
+    private long retryMaxMillis;
+
+    private final PriorityBlockingQueue<Outbound<?, ?>> ready = new PriorityBlockingQueue<>();
+    private final ConcurrentHashMap<Long, ChatQueue> chatQueues = new ConcurrentHashMap<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    private RateLimiter globalLimiter;
+    private ScheduledExecutorService timer;
+    private Thread dispatcherThread;
+    private volatile boolean running;
+
+    private Timer sendLatency;
+    private Counter rejectedCounter;
+    private Counter retriedCounter;
+    private Counter expiredCounter;
+
+    @PostConstruct
+    public void init() {
+        globalLimiter = new RateLimiter(TimeUnit.SECONDS.toNanos(1) / globalRatePerSecond, 1);
+
+        timer = Executors.newSingleThreadScheduledExecutor(daemon("outbound-timer"));
+        timer.scheduleWithFixedDelay(this::evictIdleChats, 1, 1, TimeUnit.MINUTES);
+
+        sendLatency = Timer.builder("bot.outbound.send.latency")
+                .description("Время от постановки в очередь до ответа Telegram")
+                .register(meterRegistry);
+        rejectedCounter = Counter.builder("bot.outbound.rejected")
+                .description("Исходящие сообщения, не принятые из-за переполнения очереди")
+                .register(meterRegistry);
+        retriedCounter = Counter.builder("bot.outbound.retried")
+                .description("Повторные попытки отправки после 429, 5xx и сетевых ошибок")
+                .register(meterRegistry);
+        expiredCounter = Counter.builder("bot.outbound.expired")
+                .description("Сообщения, не отправленные до дедлайна")
+                .register(meterRegistry);
+        Gauge.builder("bot.outbound.queue.depth", pending, AtomicInteger::get)
+                .description("Исходящие сообщения, ожидающие отправки или ответа Telegram")
+                .register(meterRegistry);
+
+        running = true;
+        dispatcherThread = new Thread(this::dispatchLoop, "outbound-dispatcher");
+        dispatcherThread.setDaemon(true);
+        dispatcherThread.start();
+    }
+
+    /**
+     * Ставит запрос в очередь отправки
+     *
+     * @param chatId чат получателя (для лимита на чат)
+     * @return future с последним ответом Telegram; завершается с ошибкой, если очередь переполнена
+     *         или сеть недоступна до самого дедлайна
+     */
+    public <T extends BaseRequest<T, R>, R extends BaseResponse> CompletableFuture<R> submit(
+            Long chatId, T request, SendPriority priority) {
+
+        CompletableFuture<R> future = new CompletableFuture<>();
+        if (pending.incrementAndGet() > queueCapacity) {
+            pending.decrementAndGet();
+            rejectedCounter.increment();
+            future.completeExceptionally(new IllegalStateException("Outbound queue is full"));
+            return future;
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(deadlineMillis);
+        Outbound<T, R> item = new Outbound<>(chatId, request, priority, sequence.incrementAndGet(), deadline, future);
+        future.whenComplete((response, error) -> {
+            pending.decrementAndGet();
+            sendLatency.record(System.nanoTime() - item.enqueuedAt, TimeUnit.NANOSECONDS);
+        });
+
+        // Очередь чата создается и удаляется атомарно с добавлением (compute по ключу)
+        boolean[] idle = new boolean[1];
+        ChatQueue chat = chatQueues.compute(chatId, (id, queue) -> {
+            ChatQueue target = queue != null ? queue : new ChatQueue();
+            idle[0] = target.offer(item);
+            return target;
+        });
+        if (idle[0]) {
+            schedule(chat, item);
+        }
+        return future;
+    }
+
+    /**
+     * Ждет, пока очередь опустеет (при остановке приложения)
+     *
+     * @return сколько сообщений так и не ушло
+     */
+    public int flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        }
+        return pending.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        dispatcherThread.interrupt();
+        timer.shutdownNow();
+    }
+
+    private void dispatchLoop() {
+        while (running) {
+            Outbound<?, ?> item;
+            try {
+                item = ready.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            // Глобальный лимит: ждет только этот поток, вызывающие потоки не блокируются
+            long sendAt = globalLimiter.reserve(System.nanoTime());
+            long waitNanos;
+            while ((waitNanos = sendAt - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, waitNanos);
+            }
+
+            send(item);
+        }
+    }
+
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> void send(Outbound<T, R> item) {
+        item.attempts++;
+        try {
+            bot.execute(item.request, new Callback<T, R>() {
+                @Override
+                public void onResponse(T request, R response) {
+                    handleResponse(item, response);
+                }
+
+                @Override
+                public void onFailure(T request, IOException e) {
+                    handleFailure(item, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            log.error("Error sending {} to chat {}", item.request.getMethod(), item.chatId, e);
+            finish(item, null, e);
+        }
+    }
+
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> void handleResponse(Outbound<T, R> item, R response) {
+        int errorCode = response.errorCode();
+        long now = System.nanoTime();
+
+        if (errorCode == 429) {
+            Integer retryAfter = response.parameters() != null ? response.parameters().retryAfter() : null;
+            long retryAt = now + TimeUnit.SECONDS.toNanos(retryAfter != null ? retryAfter : 1);
+            // Telegram просит подождать - следующие сообщения чата тоже не раньше этого момента
+            chatQueue(item.chatId).limiter.pauseUntil(retryAt);
+            if (retry(item, retryAt, now)) {
+                log.warn("Telegram 429 for chat {}, retry after {} s", item.chatId, retryAfter);
+                return;
+            }
+        } else if (errorCode >= 500 && retry(item, now + backoffNanos(item.attempts), now)) {
+            log.warn("Telegram {} for chat {}, attempt {}", errorCode, item.chatId, item.attempts);
+            return;
+        }
+
+        finish(item, response, null);
+    }
+
+    private void handleFailure(Outbound<?, ?> item, IOException e) {
+        long now = System.nanoTime();
+        if (retry(item, now + backoffNanos(item.attempts), now)) {
+            log.warn("Network error sending to chat {}, attempt {}: {}", item.chatId, item.attempts, e.getMessage());
+            return;
+        }
+        log.error("Error sending {} to chat {}", item.request.getMethod(), item.chatId, e);
+        finish(item, null, e);
+    }
+
+    /**
+     * Завершает запрос и ставит в очередь отправки следующий запрос того же чата
+     */
+    private <T extends BaseRequest<T, R>, R extends BaseResponse> void finish(Outbound<T, R> item, R response,
+                                                                              Throwable error) {
+        if (error == null) {
+            item.future.complete(response);
+        } else {
+            item.future.completeExceptionally(error);
+        }
+        ChatQueue chat = chatQueue(item.chatId);
+        Outbound<?, ?> next;
+        while ((next = chat.next()) != null && !schedule(chat, next)) {
+            // Просроченный запрос пропускаем и берем следующий
+        }
+    }
+
+    /**
+     * Ставит первый запрос чата в очередь отправки на слот ограничителя чата
+     * Запрос, который ждал в очереди чата дольше дедлайна, не отправляется
+     *
+     * @return false, если запрос просрочен и завершен с ошибкой
+     */
+    private boolean schedule(ChatQueue chat, Outbound<?, ?> item) {
+        long now = System.nanoTime();
+        if (now - item.deadline > 0) {
+            expiredCounter.increment();
+            item.future.completeExceptionally(new IllegalStateException("Outbound message expired in chat queue"));
+            return false;
+        }
+        enqueueAt(item, chat.limiter.reserve(now), now);
+        return true;
+    }
+
+    /**
+     * Планирует повтор на момент retryAt, если он укладывается в дедлайн сообщения
+     */
+    private boolean retry(Outbound<?, ?> item, long retryAt, long now) {
+        if (retryAt - item.deadline > 0 || !running) {
+            expiredCounter.increment();
+            return false;
+        }
+        retriedCounter.increment();
+        enqueueAt(item, retryAt, now);
+        return true;
+    }
+
+    private void enqueueAt(Outbound<?, ?> item, long sendAt, long now) {
+        long delayNanos = sendAt - now;
+        if (delayNanos <= 0) {
+            ready.add(item);
+        } else {
+            timer.schedule(() -> ready.add(item), delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Экспоненциальная пауза с разбросом: случайное значение от половины до base * 2^(attempt-1)
+     */
+    private long backoffNanos(int attempt) {
+        long ceiling = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempt - 1, 20));
+        return TimeUnit.MILLISECONDS.toNanos(ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1));
+    }
+
+    private ChatQueue chatQueue(Long chatId) {
+        return chatQueues.get(chatId); // Пока у чата есть запрос в полете, очередь не удаляется
+    }
+
+    /**
+     * Удаляет очереди чатов, которые давно ничего не отправляли
+     */
+    private void evictIdleChats() {
+        long now = System.nanoTime();
+        for (Long chatId : chatQueues.keySet()) {
+            chatQueues.computeIfPresent(chatId, (id, chat) -> chat.isIdle(now) ? null : chat);
+        }
+    }
+
+    private static ThreadFactory daemon(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Очередь одного чата: ждущие запросы и признак запроса в полете
+     */
+    private final class ChatQueue {
+
+        private final RateLimiter limiter = new RateLimiter(TimeUnit.MILLISECONDS.toNanos(chatIntervalMillis), chatBurst);
+        private final ArrayDeque<Outbound<?, ?>> waiting = new ArrayDeque<>();
+        private boolean inFlight;
+
+        /**
+         * @return true, если запрос сразу становится текущим (очередь чата была пуста)
+         */
+        synchronized boolean offer(Outbound<?, ?> item) {
+            if (inFlight) {
+                waiting.add(item);
+                return false;
+            }
+            inFlight = true;
+            return true;
+        }
+
+        /**
+         * Текущий запрос завершен: следующий запрос или null, если ждущих нет
+         */
+        synchronized Outbound<?, ?> next() {
+            Outbound<?, ?> next = waiting.poll();
+            inFlight = next != null;
+            return next;
+        }
+
+        synchronized boolean isIdle(long now) {
+            return !inFlight && limiter.isIdle(now);
+        }
+    }
+
+    /**
+     * Ограничитель скорости GCRA (generic cell rate algorithm)
+     * Хранит "теоретическое время прибытия" следующего сообщения
+     */
+    private static final class RateLimiter {
+
+        private final long intervalNanos;
+        private final long burstNanos;
+        private final AtomicLong theoreticalArrival;
+
+        private RateLimiter(long intervalNanos, int burst) {
+            this.intervalNanos = intervalNanos;
+            this.burstNanos = intervalNanos * Math.max(0, burst - 1);
+            this.theoreticalArrival = new AtomicLong(System.nanoTime() - burstNanos);
+        }
+
+        /**
+         * Резервирует слот и возвращает момент, когда можно отправлять
+         */
+        long reserve(long now) {
+            while (true) {
+                long tat = theoreticalArrival.get();
+                long start = Math.max(tat, now - burstNanos);
+                if (theoreticalArrival.compareAndSet(tat, start + intervalNanos)) {
+                    return Math.max(now, start);
+                }
+            }
+        }
+
+        /**
+         * Запрещает отправку до указанного момента
+         */
+        void pauseUntil(long until) {
+            theoreticalArrival.accumulateAndGet(until, (current, paused) -> paused - current > 0 ? paused : current);
+        }
+
+        boolean isIdle(long now) {
+            return theoreticalArrival.get() < now - burstNanos;
+        }
+    }
+
+    private static final class Outbound<T extends BaseRequest<T, R>, R extends BaseResponse>
+            implements Comparable<Outbound<?, ?>> {
+
+        private final Long chatId;
+        private final T request;
+        private final SendPriority priority;
+        private final long sequence;
+        private final long enqueuedAt = System.nanoTime();
+        private final long deadline;
+        private final CompletableFuture<R> future;
+        private int attempts; // Меняется только между попытками, которые не пересекаются
+
+        private Outbound(Long chatId, T request, SendPriority priority,
+                         long sequence, long deadline, CompletableFuture<R> future) {
+            this.chatId = chatId;
+            this.request = request;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.deadline = deadline;
+            this.future = future;
+        }
+
+        @Override
+        public int compareTo(Outbound<?, ?> other) {
+            int byPriority = priority.compareTo(other.priority);
+            return byPriority != 0 ? byPriority : Long.compare(sequence, other.sequence);
+        }
+    }
+}
@@ -29,6 +29,7 @@ public class PaymentService {
 
     private final UserRepository userRepository;
     private final PaymentRepository paymentRepository;
+    private final QuotaLedgerService quotaLedgerService;
 
     @Value("${stripe.secret.key:}")
     private String stripeSecretKey;
@@ -151,20 +152,14 @@ public class PaymentService {
             Long chatId = Long.parseLong(chatIdStr);
             int requests = Integer.parseInt(requestsStr);
 
-            // Находим пользователя
-            Optional<User> userOpt = userRepository.findById(chatId);
-            if (userOpt.isEmpty()) {
-                log.error("User not found for chatId: {}", chatId);
-                return;
-            }
-
-            // Обновляем баланс пользователя
-            User user = userOpt.get();
+            // Обновляем баланс пользователя через хранилище счетчиков, не затирая параллельные списания
             double amountPerRequest = getAmountPerRequest(packageType);
             double totalAmount = requests * amountPerRequest;
 
-            user.setBalance(user.getBalance() + totalAmount);
-            userRepository.save(user);
+            if (!quotaLedgerService.credit(chatId, totalAmount)) {
+                log.error("User not found for chatId: {}", chatId);
+                return;
+            }
 
             // Обновляем статус платежа в базе
             updatePaymentStatus(stripeSessionId, "completed");
@@ -0,0 +1,119 @@
+package com.github.username.service;
+
+import com.pengrad.telegrambot.response.SendResponse;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Ответ на AI запрос, который еще готовится
+ * Если была отправлена заглушка, первая часть ответа заменяет ее через editMessageText,
+ * остальные части (ответ длиннее 4096 символов) уходят следующими сообщениями после edit.
+ *
+ * При потоковом ответе промежуточный текст тоже показывается в заглушке, но не чаще
+ * одного edit в editInterval и не больше одного edit в полете: фрагменты, пришедшие
+ * в это время, не отправляются - следующий edit все равно покажет накопленный текст
+ */
+public class PendingReply {
+
+    private static final String STREAMING_CURSOR = " ▌"; // Заодно гарантирует, что итоговый edit отличается от промежуточного
+
+    private final TelegramMessageService messageService;
+    private final Long chatId;
+    private final CompletableFuture<Integer> placeholderId; // null, если заглушку не отправляли
+    private final long editIntervalNanos;
+
+    private CompletableFuture<Boolean> lastEdit = CompletableFuture.completedFuture(true);
+    private boolean editing;
+    private boolean completed;
+    private long lastEditAt;
+
+    PendingReply(TelegramMessageService messageService, Long chatId,
+                 CompletableFuture<SendResponse> placeholder, long editIntervalNanos) {
+        this.messageService = messageService;
+        this.chatId = chatId;
+        this.placeholderId = placeholder == null ? null : placeholder
+                .handle((response, error) -> error == null && response.isOk() ? response.message().messageId() : null);
+        this.editIntervalNanos = editIntervalNanos;
+        this.lastEditAt = System.nanoTime();
+    }
+
+    /**
+     * Показывает промежуточный текст потокового ответа
+     * Вызывается на каждый фрагмент; лишние вызовы отбрасываются без копирования текста
+     */
+    public void update(CharSequence partialText) {
+        if (placeholderId == null) {
+            return; // В режиме typing редактировать нечего
+        }
+
+        long now = System.nanoTime();
+        synchronized (this) {
+            if (completed || editing || now - lastEditAt < editIntervalNanos) {
+                return;
+            }
+            editing = true;
+            lastEditAt = now;
+        }
+
+        int length = Math.min(partialText.length(), TelegramMessageService.MAX_MESSAGE_LENGTH - STREAMING_CURSOR.length());
+        String text = partialText.subSequence(0, length) + STREAMING_CURSOR;
+
+        CompletableFuture<Boolean> edit = placeholderId.thenCompose(messageId -> messageId == null
+                ? CompletableFuture.completedFuture(false)
+                : messageService.editMessage(chatId, messageId, text)
+                        .handle((response, error) -> error == null && response.isOk()));
+
+        synchronized (this) {
+            lastEdit = edit;
+        }
+        edit.whenComplete((edited, error) -> {
+            synchronized (this) {
+                editing = false;
+            }
+        });
+    }
+
+    /**
+     * Отправляет итоговый текст
+     *
+     * @return future, который завершается true, если все части доставлены
+     */
+    public CompletableFuture<Boolean> complete(String text) {
+        List<String> parts = TelegramMessageService.splitMessage(text);
+        if (placeholderId == null) {
+            return sendParts(parts, 0);
+        }
+
+        CompletableFuture<Boolean> previousEdit;
+        synchronized (this) {
+            completed = true;
+            previousEdit = lastEdit;
+        }
+
+        // Итоговый edit идет строго после промежуточного, иначе старый текст может его перезаписать
+        return previousEdit
+                .exceptionally(error -> false)
+                .thenCompose(ignored -> placeholderId)
+                .thenCompose(messageId -> {
+                    if (messageId == null) {
+                        return sendParts(parts, 0); // Заглушка не дошла - отправляем ответ обычным сообщением
+                    }
+                    // Продолжение ставим в очередь только после edit: если он не удался, первая часть
+                    // уходит новым сообщением, и все части должны идти по порядку
+                    return messageService.editMessage(chatId, messageId, parts.get(0))
+                            .handle((response, error) -> error == null && response.isOk())
+                            .thenCompose(edited -> sendParts(parts, edited ? 1 : 0));
+                });
+    }
+
+    private CompletableFuture<Boolean> sendParts(List<String> parts, int from) {
+        CompletableFuture<Boolean> result = CompletableFuture.completedFuture(true);
+        for (String part : parts.subList(from, parts.size())) {
+            CompletableFuture<Boolean> sent = messageService.sendMessage(chatId, part)
+                    .handle((response, error) -> error == null && response.isOk());
+            result = result.thenCombine(sent, Boolean::logicalAnd);
+        }
+        return result;
+    }
+}
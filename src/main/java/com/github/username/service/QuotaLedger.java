@@ -0,0 +1,415 @@
+package com.github.username.service;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Счетчики лимита в памяти: chatId -> (день, запросов за день, баланс в центах)
+ * Открытая адресация на массивах long без упаковки в объекты; состояние пользователя
+ * упаковано в один long: [epochDay:20][dailyUsed:12][balanceCents:32 со знаком].
+ *
+ * Чтение (get) без блокировок. Изменения идут под одной из STRIPES блокировок, выбранной
+ * по ключу: изменения одного пользователя упорядочены, разные пользователи не мешают друг другу.
+ * Новый ключ занимает слот через CAS, поэтому вставки из разных полос не конфликтуют.
+ * Расширение таблицы берет все блокировки и публикует новую таблицу через volatile.
+ *
+ * Измененные записи помечаются; drainDirty отдает на запись в БД не само состояние,
+ * а изменения с прошлой выгрузки - их можно прибавить к строке users, не затирая
+ * изменения, сделанные в БД в обход памяти
+ */
+public class QuotaLedger {
+
+    /** get: пользователя нет в памяти */
+    public static final long ABSENT = Long.MIN_VALUE;
+    /** tryConsume: лимит исчерпан */
+    public static final long REJECTED = -1;
+    /** Изменение невозможно: пользователя нет в памяти, его нужно сначала загрузить */
+    public static final long NOT_LOADED = -2;
+
+    static final int MAX_DAILY_USED = (1 << 12) - 1;
+
+    private static final int STRIPES = 64;
+    private static final int MIN_CAPACITY = 1024; // Запас на одновременные вставки из всех полос
+    private static final double MAX_LOAD = 0.6;
+    private static final long EMPTY = 0; // chatId 0 в Telegram не бывает
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle BYTES = MethodHandles.arrayElementVarHandle(byte[].class);
+
+    private final ReentrantLock[] locks = new ReentrantLock[STRIPES];
+    private final AtomicInteger size = new AtomicInteger();
+    private volatile Table table;
+
+    /**
+     * Обратный вызов drainDirty; без упаковки в объекты
+     * usedDelta - изменение запросов за день epochDay; если день сменился после прошлой выгрузки,
+     * это полное число запросов за новый день
+     */
+    @FunctionalInterface
+    public interface DirtyEntryConsumer {
+        void accept(long chatId, int epochDay, int usedDelta, long balanceDeltaCents, int completedRequests);
+    }
+
+    private static final class Table {
+        final long[] keys;
+        final long[] values;   // ABSENT, пока вставка не опубликовала значение
+        final int[] completed; // Выполненные запросы, еще не записанные в total_requests
+        final int[] usedDelta; // Изменение запросов за день с прошлой выгрузки
+        final long[] balanceDelta; // Изменение баланса в центах с прошлой выгрузки
+        final byte[] dirty;
+        final int mask;
+        final int threshold;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            values = new long[capacity];
+            Arrays.fill(values, ABSENT);
+            completed = new int[capacity];
+            usedDelta = new int[capacity];
+            balanceDelta = new long[capacity];
+            dirty = new byte[capacity];
+            mask = capacity - 1;
+            threshold = (int) (capacity * MAX_LOAD);
+        }
+    }
+
+    public QuotaLedger(int expectedEntries) {
+        for (int i = 0; i < STRIPES; i++) {
+            locks[i] = new ReentrantLock();
+        }
+        table = new Table(capacityFor(expectedEntries));
+    }
+
+    public static long pack(int epochDay, int dailyUsed, long balanceCents) {
+        long balance = Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, balanceCents));
+        return ((long) epochDay << 44) | ((long) Math.min(dailyUsed, MAX_DAILY_USED) << 32) | (balance & 0xFFFFFFFFL);
+    }
+
+    public static int epochDay(long packed) {
+        return (int) (packed >>> 44);
+    }
+
+    public static int dailyUsed(long packed) {
+        return (int) (packed >>> 32) & MAX_DAILY_USED;
+    }
+
+    public static long balanceCents(long packed) {
+        return (int) packed; // Младшие 32 бита со знаком
+    }
+
+    /**
+     * Упакованное состояние пользователя или ABSENT; без блокировок
+     */
+    public long get(long chatId) {
+        Table t = table;
+        int index = indexOf(t, chatId);
+        return index < 0 ? ABSENT : (long) LONGS.getVolatile(t.values, index);
+    }
+
+    /**
+     * Добавляет пользователя, загруженного из БД, если его еще нет
+     */
+    public void putIfAbsent(long chatId, long packed) {
+        if (size.get() >= table.threshold) {
+            resize();
+        }
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = (int) mix(chatId) & t.mask;
+            while (true) {
+                long key = (long) LONGS.getAcquire(t.keys, index);
+                if (key == chatId) {
+                    return; // Уже загружен
+                }
+                if (key == EMPTY && LONGS.compareAndSet(t.keys, index, EMPTY, chatId)) {
+                    LONGS.setVolatile(t.values, index, packed);
+                    size.incrementAndGet();
+                    return;
+                }
+                if ((long) LONGS.getAcquire(t.keys, index) != chatId) {
+                    index = (index + 1) & t.mask; // Слот занял другой ключ
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Списывает запрос: бесплатный, пока не исчерпан дневной лимит, затем платный с баланса
+     *
+     * @return стоимость в центах (0 - бесплатный), REJECTED или NOT_LOADED
+     */
+    public long tryConsume(long chatId, int today, int freeLimit, long priceCents) {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = indexOf(t, chatId);
+            if (index < 0) {
+                return NOT_LOADED;
+            }
+            long packed = t.values[index];
+            int used = epochDay(packed) == today ? dailyUsed(packed) : 0; // Смена дня
+            long balance = balanceCents(packed);
+
+            long cost;
+            if (used < freeLimit) {
+                cost = 0;
+            } else if (balance >= priceCents) {
+                cost = priceCents;
+            } else {
+                return REJECTED;
+            }
+            // После смены дня в БД нужно записать число запросов за новый день, а не прибавить к старому
+            t.usedDelta[index] = epochDay(packed) == today ? t.usedDelta[index] + 1 : 1;
+            t.balanceDelta[index] -= cost;
+            write(t, index, pack(today, used + 1, balance - cost));
+            return cost;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Возвращает запрос в лимит дня reservedDay (если день еще не сменился) и деньги на баланс
+     *
+     * @return false, если пользователя нет в памяти
+     */
+    public boolean refund(long chatId, int reservedDay, long costCents) {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = indexOf(t, chatId);
+            if (index < 0) {
+                return false;
+            }
+            long packed = t.values[index];
+            int used = dailyUsed(packed);
+            if (epochDay(packed) == reservedDay && used > 0) {
+                used--;
+                t.usedDelta[index]--;
+            }
+            t.balanceDelta[index] += costCents;
+            write(t, index, pack(epochDay(packed), used, balanceCents(packed) + costCents));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Пополняет баланс
+     *
+     * @return false, если пользователя нет в памяти
+     */
+    public boolean credit(long chatId, long cents) {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = indexOf(t, chatId);
+            if (index < 0) {
+                return false;
+            }
+            long packed = t.values[index];
+            t.balanceDelta[index] += cents;
+            write(t, index, pack(epochDay(packed), dailyUsed(packed), balanceCents(packed) + cents));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Засчитывает выполненный запрос (total_requests)
+     *
+     * @return false, если пользователя нет в памяти
+     */
+    public boolean recordCompleted(long chatId, int requests) {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = indexOf(t, chatId);
+            if (index < 0) {
+                return false;
+            }
+            t.completed[index] += requests;
+            BYTES.setRelease(t.dirty, index, (byte) 1);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Выполненные запросы, еще не записанные в БД; без блокировок, значение может отставать
+     */
+    public int pendingCompleted(long chatId) {
+        Table t = table;
+        int index = indexOf(t, chatId);
+        return index < 0 ? 0 : t.completed[index];
+    }
+
+    /**
+     * Отдает измененные записи и снимает с них пометку
+     * Состояние читается под блокировкой полосы, consumer вызывается уже без нее.
+     * Если запись в БД не удалась, записи нужно вернуть через markDirty
+     *
+     * @return число отданных записей
+     */
+    public int drainDirty(DirtyEntryConsumer consumer) {
+        int drained = 0;
+        Table t = table;
+        for (int index = 0; index <= t.mask; index++) {
+            if ((byte) BYTES.getAcquire(t.dirty, index) == 0) {
+                continue;
+            }
+            long chatId = (long) LONGS.getAcquire(t.keys, index);
+            int day;
+            int usedDelta;
+            long balanceDelta;
+            int completed;
+            ReentrantLock lock = lockFor(chatId);
+            lock.lock();
+            try {
+                if (table != t) {
+                    // Таблицу расширили: помеченные записи уже скопированы в новую, продолжаем по ней
+                    t = table;
+                    index = -1;
+                    continue;
+                }
+                day = epochDay(t.values[index]);
+                usedDelta = t.usedDelta[index];
+                balanceDelta = t.balanceDelta[index];
+                completed = t.completed[index];
+                t.usedDelta[index] = 0;
+                t.balanceDelta[index] = 0;
+                t.completed[index] = 0;
+                BYTES.setRelease(t.dirty, index, (byte) 0);
+            } finally {
+                lock.unlock();
+            }
+            consumer.accept(chatId, day, usedDelta, balanceDelta, completed);
+            drained++;
+        }
+        return drained;
+    }
+
+    /**
+     * Возвращает изменения записи, которые не удалось записать в БД
+     * Запросы за день epochDay не возвращаются, если день уже сменился: для нового дня
+     * счетчик и так будет записан целиком
+     */
+    public void markDirty(long chatId, int epochDay, int usedDelta, long balanceDeltaCents, int completedRequests) {
+        ReentrantLock lock = lockFor(chatId);
+        lock.lock();
+        try {
+            Table t = table;
+            int index = indexOf(t, chatId);
+            if (index >= 0) {
+                if (epochDay(t.values[index]) == epochDay) {
+                    t.usedDelta[index] += usedDelta;
+                }
+                t.balanceDelta[index] += balanceDeltaCents;
+                t.completed[index] += completedRequests;
+                BYTES.setRelease(t.dirty, index, (byte) 1);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public int capacity() {
+        return table.mask + 1;
+    }
+
+    /**
+     * Память под массивы таблицы, байт
+     */
+    public long memoryBytes() {
+        long capacity = capacity();
+        return capacity * (Long.BYTES + Long.BYTES + Integer.BYTES + Integer.BYTES + Long.BYTES + Byte.BYTES);
+    }
+
+    private void write(Table t, int index, long packed) {
+        LONGS.setVolatile(t.values, index, packed);
+        BYTES.setRelease(t.dirty, index, (byte) 1);
+    }
+
+    private void resize() {
+        for (ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            Table old = table;
+            if (size.get() < old.threshold) {
+                return; // Уже расширили
+            }
+            Table grown = new Table((old.mask + 1) * 2);
+            for (int i = 0; i <= old.mask; i++) {
+                long key = old.keys[i];
+                if (key == EMPTY || old.values[i] == ABSENT) {
+                    continue;
+                }
+                int index = (int) mix(key) & grown.mask;
+                while (grown.keys[index] != EMPTY) {
+                    index = (index + 1) & grown.mask;
+                }
+                grown.keys[index] = key;
+                grown.values[index] = old.values[i];
+                grown.completed[index] = old.completed[i];
+                grown.usedDelta[index] = old.usedDelta[i];
+                grown.balanceDelta[index] = old.balanceDelta[i];
+                grown.dirty[index] = old.dirty[i];
+            }
+            table = grown;
+        } finally {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+
+    private static int indexOf(Table t, long chatId) {
+        int index = (int) mix(chatId) & t.mask;
+        while (true) {
+            long key = (long) LONGS.getAcquire(t.keys, index);
+            if (key == chatId) {
+                return (long) LONGS.getVolatile(t.values, index) == ABSENT ? -1 : index;
+            }
+            if (key == EMPTY) {
+                return -1;
+            }
+            index = (index + 1) & t.mask;
+        }
+    }
+
+    private ReentrantLock lockFor(long chatId) {
+        return locks[(int) (mix(chatId) >>> 58) & (STRIPES - 1)]; // Старшие биты, слот берет младшие
+    }
+
+    private static int capacityFor(int expectedEntries) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedEntries) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    private static long mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L; // Фибоначчиево хеширование: соседние chatId расходятся по таблице
+        return h ^ (h >>> 32);
+    }
+}
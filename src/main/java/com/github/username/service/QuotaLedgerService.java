@@ -0,0 +1,344 @@
+package com.github.username.service;
+
+import com.github.username.entity.QuotaReservation;
+import com.github.username.entity.User;
+import com.github.username.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Хранилище счетчиков лимита: дневные запросы, баланс, всего запросов
+ *
+ * При quota.ledger.enabled (по умолчанию выключен) счетчики живут в QuotaLedger: пользователь
+ * загружается из БД при первом обращении, дальше проверка и списание не трогают строку users.
+ * Изменения пишутся в users пачками JDBC раз в quota.ledger.flush-ms и при остановке - как
+ * приращения, поэтому изменения в БД в обход памяти не затираются. Но память их не видит,
+ * и лимит проверяется по своей копии: режим рассчитан на один экземпляр бота.
+ *
+ * Списание, не дошедшее до БД, теряется при падении процесса. Резерв в quota_reservations
+ * получает debit_persisted, когда его списание записано; резерв прошлого запуска без этой
+ * пометки планировщик удаляет без возврата (см. isDebitRecorded), иначе баланс вырастет.
+ *
+ * При выключенном ledger каждый вызов - атомарный UPDATE в UserRepository
+ * Любая запись в users сбрасывает пользователя в UserCache
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QuotaLedgerService {
+
+    // Запросы за день: тот же день - прибавляем, день в БД старее - пишем счетчик нового дня
+    private static final String FLUSH_SQL = "update users set daily_requests_used = case "
+            + "when last_request_date is null or last_request_date < cast(? as timestamp) then cast(? as int) "
+            + "when last_request_date < cast(? as timestamp) then greatest(daily_requests_used + cast(? as int), 0) "
+            + "else daily_requests_used end, "
+            + "last_request_date = case when last_request_date is null or last_request_date < cast(? as timestamp) "
+            + "then cast(? as timestamp) else last_request_date end, "
+            + "balance = balance + ?, total_requests = total_requests + ? where chat_id = ?";
+
+    private static final String MARK_RESERVATIONS_SQL = "update quota_reservations set debit_persisted = true "
+            + "where debit_persisted is null and created_at < ?";
+
+    private final UserRepository userRepository;
+    private final UserCache userCache;
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${quota.ledger.enabled:false}")
+    private boolean enabled;
+
+    @Value("${quota.ledger.initial-capacity:65536}")
+    private int initialCapacity; // Ожидаемое число активных пользователей
+
+    @Value("${quota.ledger.batch-size:500}")
+    private int batchSize;
+
+    @Value("${usage.daily.free:10}")
+    private int dailyFreeLimit;
+
+    @Value("${usage.price.per.request:0.10}")
+    private double pricePerRequest;
+
+    private QuotaLedger ledger;
+    private long priceCents;
+    private LocalDateTime startedAt; // Списания резервов, созданных раньше, были у прошлого процесса
+
+    // Буферы пачки; flush синхронизирован, поэтому один набор на сервис
+    private long[] batchChatIds;
+    private int[] batchDays;
+    private int[] batchUsedDeltas;
+    private long[] batchBalanceDeltas;
+    private int[] batchCompleted;
+    private int batchCount;
+    private boolean batchFailed; // В этом flush не записалась хотя бы одна пачка
+
+    private Timer flushTimer;
+    private Counter flushedCounter;
+    private Counter flushErrorCounter;
+
+    @PostConstruct
+    public void init() {
+        priceCents = Math.round(pricePerRequest * 100);
+        batchChatIds = new long[batchSize];
+        batchDays = new int[batchSize];
+        batchUsedDeltas = new int[batchSize];
+        batchBalanceDeltas = new long[batchSize];
+        batchCompleted = new int[batchSize];
+        startedAt = LocalDateTime.now();
+        if (!enabled) {
+            return;
+        }
+        log.info("Quota ledger enabled: limits are checked in memory, run a single bot instance");
+
+        ledger = new QuotaLedger(initialCapacity);
+        Gauge.builder("bot.quota.ledger.size", ledger, QuotaLedger::size)
+                .description("Пользователи в памяти ledger")
+                .register(meterRegistry);
+        flushTimer = Timer.builder("bot.quota.ledger.flush")
+                .description("Запись измененных счетчиков в БД")
+                .register(meterRegistry);
+        flushedCounter = Counter.builder("bot.quota.ledger.flushed")
+                .description("Строки users, записанные из ledger")
+                .register(meterRegistry);
+        flushErrorCounter = Counter.builder("bot.quota.ledger.flush.errors")
+                .description("Неудачные записи ledger в БД")
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Списание резерва есть в БД или в памяти этого процесса - резерв можно вернуть
+     * Резерв прошлого запуска, чье списание не успели записать, возвращать нельзя:
+     * при загрузке из БД этого списания уже нет
+     */
+    public boolean isDebitRecorded(QuotaReservation reservation) {
+        return Boolean.TRUE.equals(reservation.getDebitPersisted())
+                || reservation.getCreatedAt() == null
+                || !reservation.getCreatedAt().isBefore(startedAt);
+    }
+
+    /**
+     * Списывает запрос
+     *
+     * @return стоимость ($, 0 - бесплатный) или -1, если лимит исчерпан или пользователя нет
+     */
+    public double tryConsume(Long chatId, LocalDateTime now) {
+        if (!enabled) {
+            int consumed = userRepository.consumeRequest(chatId, now.toLocalDate().atStartOfDay(), now,
+                    dailyFreeLimit, pricePerRequest);
+            if (consumed == 0) {
+                return -1;
+            }
+            userCache.invalidate(chatId);
+            // RETURNING в JPQL нет, поэтому счетчики - отдельное чтение по ключу в той же транзакции
+            int used = userRepository.findQuotaCounters(chatId).orElseThrow().dailyRequestsUsed();
+            return used > dailyFreeLimit ? pricePerRequest : 0.0;
+        }
+
+        int today = (int) now.toLocalDate().toEpochDay();
+        long cost = ledger.tryConsume(chatId, today, dailyFreeLimit, priceCents);
+        if (cost == QuotaLedger.NOT_LOADED && load(chatId)) {
+            cost = ledger.tryConsume(chatId, today, dailyFreeLimit, priceCents);
+        }
+        return cost < 0 ? -1 : cost / 100.0;
+    }
+
+    /**
+     * Возвращает запрос в лимит дня reservedOn (если день не сменился) и деньги на баланс
+     */
+    public void refund(Long chatId, LocalDate reservedOn, double cost) {
+        if (!enabled) {
+            userRepository.refundRequest(chatId, reservedOn.atStartOfDay(), reservedOn.plusDays(1).atStartOfDay(), cost);
+            userCache.invalidate(chatId);
+            return;
+        }
+        long cents = Math.round(cost * 100);
+        if (!ledger.refund(chatId, (int) reservedOn.toEpochDay(), cents) && load(chatId)) {
+            ledger.refund(chatId, (int) reservedOn.toEpochDay(), cents);
+        }
+    }
+
+    /**
+     * Засчитывает выполненный запрос в total_requests
+     */
+    public void recordCompleted(Long chatId) {
+        if (!enabled) {
+            userRepository.incrementTotalRequests(chatId);
+            userCache.invalidate(chatId);
+            return;
+        }
+        if (!ledger.recordCompleted(chatId, 1) && load(chatId)) {
+            ledger.recordCompleted(chatId, 1);
+        }
+    }
+
+    /**
+     * Пополняет баланс; деньги записываются в БД сразу, не дожидаясь периодической записи
+     *
+     * @return false, если пользователя нет
+     */
+    public boolean credit(Long chatId, double amount) {
+        if (!enabled) {
+            boolean credited = userRepository.addBalance(chatId, amount) == 1;
+            userCache.invalidate(chatId);
+            return credited;
+        }
+        long cents = Math.round(amount * 100);
+        boolean credited = ledger.credit(chatId, cents) || load(chatId) && ledger.credit(chatId, cents);
+        if (credited) {
+            flush();
+        }
+        return credited;
+    }
+
+    /**
+     * Подставляет в пользователя, прочитанного из БД, еще не записанные счетчики из памяти
+     */
+    public User applyPending(User user) {
+        if (!enabled) {
+            return user;
+        }
+        long packed = ledger.get(user.getChatId());
+        if (packed == QuotaLedger.ABSENT) {
+            return user;
+        }
+        int day = QuotaLedger.epochDay(packed);
+        user.setDailyRequestsUsed(QuotaLedger.dailyUsed(packed));
+        user.setLastRequestDate(day == 0 ? null : LocalDate.ofEpochDay(day).atStartOfDay());
+        user.setBalance(QuotaLedger.balanceCents(packed) / 100.0);
+        user.setTotalRequests(user.getTotalRequests() + ledger.pendingCompleted(user.getChatId()));
+        return user;
+    }
+
+    /**
+     * Пишет измененные счетчики в users пачками
+     * Вызывается по расписанию и при остановке (GracefulShutdownService)
+     *
+     * @return число записанных пользователей
+     */
+    @Scheduled(fixedDelayString = "${quota.ledger.flush-ms:5000}")
+    public synchronized int flush() {
+        if (!enabled) {
+            return 0;
+        }
+        long flushStartedAt = System.nanoTime();
+        // Списания резервов, созданных до этого момента, уже в памяти и попадут в эту выгрузку
+        LocalDateTime drainedAt = LocalDateTime.now();
+        batchCount = 0;
+        batchFailed = false;
+        int drained = ledger.drainDirty((chatId, day, usedDelta, balanceDelta, completed) -> {
+            batchChatIds[batchCount] = chatId;
+            batchDays[batchCount] = day;
+            batchUsedDeltas[batchCount] = usedDelta;
+            batchBalanceDeltas[batchCount] = balanceDelta;
+            batchCompleted[batchCount] = completed;
+            if (++batchCount == batchSize) {
+                writeBatch();
+            }
+        });
+        if (batchCount > 0) {
+            writeBatch();
+        }
+        if (!batchFailed) {
+            markReservationsPersisted(drainedAt);
+        }
+        if (drained > 0) {
+            flushTimer.record(System.nanoTime() - flushStartedAt, TimeUnit.NANOSECONDS);
+            log.debug("Quota ledger flushed {} users", drained);
+        }
+        return drained;
+    }
+
+    private void writeBatch() {
+        int count = batchCount;
+        batchCount = 0;
+        try {
+            jdbcTemplate.batchUpdate(FLUSH_SQL, new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement statement, int i) throws SQLException {
+                    int day = batchDays[i];
+                    // День 0 - пользователь еще не делал запросов: счетчик дня не трогаем
+                    LocalDateTime dayStart = day == 0 ? null : LocalDate.ofEpochDay(day).atStartOfDay();
+                    LocalDateTime dayEnd = day == 0 ? null : dayStart.plusDays(1);
+                    statement.setObject(1, dayStart, Types.TIMESTAMP);
+                    statement.setInt(2, batchUsedDeltas[i]);
+                    statement.setObject(3, dayEnd, Types.TIMESTAMP);
+                    statement.setInt(4, batchUsedDeltas[i]);
+                    statement.setObject(5, dayStart, Types.TIMESTAMP);
+                    statement.setObject(6, dayStart, Types.TIMESTAMP);
+                    statement.setDouble(7, batchBalanceDeltas[i] / 100.0);
+                    statement.setInt(8, batchCompleted[i]);
+                    statement.setLong(9, batchChatIds[i]);
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return count;
+                }
+            });
+            flushedCounter.increment(count);
+            // Копии в кэше пользователей считали total_requests без этих запросов
+            for (int i = 0; i < count; i++) {
+                userCache.invalidate(batchChatIds[i]);
+            }
+        } catch (Exception e) {
+            // Возвращаем изменения в память - запишутся при следующем flush
+            batchFailed = true;
+            flushErrorCounter.increment();
+            log.error("Failed to flush {} quota ledger entries", count, e);
+            for (int i = 0; i < count; i++) {
+                ledger.markDirty(batchChatIds[i], batchDays[i], batchUsedDeltas[i], batchBalanceDeltas[i],
+                        batchCompleted[i]);
+            }
+        }
+    }
+
+    /**
+     * Отмечает резервы, чьи списания теперь в БД; если не получилось, отметит следующий flush
+     */
+    private void markReservationsPersisted(LocalDateTime drainedAt) {
+        try {
+            jdbcTemplate.update(MARK_RESERVATIONS_SQL, drainedAt);
+        } catch (Exception e) {
+            flushErrorCounter.increment();
+            log.error("Failed to mark quota reservations as persisted", e);
+        }
+    }
+
+    /**
+     * Загружает пользователя из БД в память
+     *
+     * @return false, если пользователя нет
+     */
+    private boolean load(Long chatId) {
+        Optional<User> userOpt = userCache.find(chatId); // Пока ledger включен, счетчики в users меняет только flush
+        if (userOpt.isEmpty()) {
+            return false;
+        }
+        User user = userOpt.get();
+        int day = user.getLastRequestDate() != null ? (int) user.getLastRequestDate().toLocalDate().toEpochDay() : 0;
+        ledger.putIfAbsent(chatId, QuotaLedger.pack(day, user.getDailyRequestsUsed(), Math.round(user.getBalance() * 100)));
+        return true;
+    }
+}
@@ -0,0 +1,203 @@
+package com.github.username.service;
+
+import com.github.username.entity.QuotaReservation;
+import com.github.username.repository.QuotaReservationRepository;
+import com.github.username.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Лимиты запросов в три коротких шага вместо одной транзакции на все время ответа AI:
+ * 1. reserve - списывает запрос из дневного лимита (или баланса) и записывает резерв
+ * 2. вызов OpenAI идет без транзакции и без соединения с БД
+ * 3. commit - записывает использование, release - возвращает запрос
+ *
+ * Резерв, который не подтвердили и не отменили за timeout (процесс упал, поток завис),
+ * возвращается планировщиком - кроме резервов, чье списание пропало вместе с прошлым процессом
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class QuotaService {
+
+    private final UserService userService;
+    private final UserRepository userRepository;
+    private final UsageHistoryWriter usageHistoryWriter;
+    private final QuotaLedgerService quotaLedgerService;
+    private final QuotaReservationRepository reservationRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${quota.reservation.timeout-seconds:120}")
+    private long reservationTimeoutSeconds; // Больше дедлайна запроса к OpenAI
+
+    private Counter rejectedCounter;
+    private Counter committedCounter;
+    private Counter releasedCounter;
+    private Counter expiredCounter;
+    private Counter lostCounter;
+
+    /**
+     * Резерв одного запроса
+     *
+     * @param reservedOn день, из лимита которого взят запрос
+     * @param cost       списано с баланса, 0 для бесплатного запроса
+     */
+    public record Reservation(Long id, Long chatId, LocalDate reservedOn, double cost) {
+    }
+
+    @PostConstruct
+    public void init() {
+        rejectedCounter = outcomeCounter("rejected");
+        committedCounter = outcomeCounter("committed");
+        releasedCounter = outcomeCounter("released");
+        expiredCounter = outcomeCounter("expired");
+        lostCounter = outcomeCounter("lost");
+    }
+
+    /**
+     * Шаг 1: резервирует запрос, если он укладывается в дневной лимит или оплачен балансом
+     * Проверка и списание - одна операция QuotaLedgerService (в памяти или условный UPDATE)
+     *
+     * @return резерв или пусто, если лимит исчерпан
+     */
+    @Transactional
+    public Optional<Reservation> reserve(Long chatId, String firstName, String lastName, String username) {
+        LocalDateTime now = LocalDateTime.now();
+        LocalDate today = now.toLocalDate();
+
+        double cost = quotaLedgerService.tryConsume(chatId, now);
+        if (cost < 0 && !userRepository.existsById(chatId)) {
+            userService.createUser(chatId, firstName, lastName, username); // Первое сообщение пользователя
+            cost = quotaLedgerService.tryConsume(chatId, now);
+        }
+        if (cost < 0) {
+            rejectedCounter.increment();
+            return Optional.empty();
+        }
+        refundOnRollback(chatId, today, cost);
+
+        QuotaReservation reservation = new QuotaReservation();
+        reservation.setChatId(chatId);
+        reservation.setReservedOn(today);
+        reservation.setCost(cost);
+        reservation.setExpiresAt(now.plusSeconds(reservationTimeoutSeconds));
+        if (!quotaLedgerService.isEnabled()) {
+            reservation.setDebitPersisted(true); // Списание - UPDATE в этой же транзакции
+        }
+        reservationRepository.save(reservation);
+
+        return Optional.of(new Reservation(reservation.getId(), chatId, today, cost));
+    }
+
+    /**
+     * Шаг 3: запрос выполнен - резерв становится использованием
+     */
+    @Transactional
+    public void commit(Reservation reservation, String message, String response, int tokensUsed) {
+        Long chatId = reservation.chatId();
+        if (reservationRepository.deleteReservation(reservation.id()) == 0) {
+            // Резерв уже вернул планировщик, но ответ доставлен - списываем запрос заново, если есть чем
+            log.warn("Reservation {} for user {} expired before commit", reservation.id(), chatId);
+            LocalDateTime now = LocalDateTime.now();
+            double cost = quotaLedgerService.tryConsume(chatId, now);
+            if (cost >= 0) {
+                refundOnRollback(chatId, now.toLocalDate(), cost);
+            }
+        }
+        quotaLedgerService.recordCompleted(chatId);
+
+        // usage_history пишется в фоне пачками, после коммита этой транзакции
+        usageHistoryWriter.record(chatId, truncateMessage(message, 4000), truncateMessage(response, 4000),
+                tokensUsed, reservation.cost());
+
+        committedCounter.increment();
+    }
+
+    /**
+     * Шаг 3: запрос не выполнен - возвращает запрос в лимит и деньги на баланс
+     */
+    @Transactional
+    public void release(Reservation reservation) {
+        if (reservationRepository.deleteReservation(reservation.id()) == 0) {
+            return; // Уже вернул планировщик
+        }
+        quotaLedgerService.refund(reservation.chatId(), reservation.reservedOn(), reservation.cost());
+        releasedCounter.increment();
+    }
+
+    /**
+     * Возвращает резервы, которые не подтвердили и не отменили вовремя
+     */
+    @Scheduled(fixedDelayString = "${quota.reservation.sweep-ms:30000}")
+    @Transactional
+    public void expireStaleReservations() {
+        List<QuotaReservation> stale = reservationRepository.findByExpiresAtBefore(LocalDateTime.now());
+        int expired = 0;
+        int lost = 0;
+        for (QuotaReservation reservation : stale) {
+            if (reservationRepository.deleteReservation(reservation.getId()) == 0) {
+                continue;
+            }
+            if (!quotaLedgerService.isDebitRecorded(reservation)) {
+                lost++; // Списание не дошло до БД - возвращать нечего
+                continue;
+            }
+            quotaLedgerService.refund(reservation.getChatId(), reservation.getReservedOn(), reservation.getCost());
+            expired++;
+        }
+        if (expired > 0) {
+            expiredCounter.increment(expired);
+            log.warn("⏰ Returned {} expired quota reservations", expired);
+        }
+        if (lost > 0) {
+            lostCounter.increment(lost);
+            log.warn("Dropped {} reservations whose quota debit was lost with the previous process", lost);
+        }
+    }
+
+    /**
+     * Списание в памяти ledger не откатывается вместе с транзакцией - возвращаем его сами,
+     * если резерв не записался (ошибка save или коммита)
+     */
+    private void refundOnRollback(Long chatId, LocalDate reservedOn, double cost) {
+        if (!quotaLedgerService.isEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()) {
+            return; // Без ledger списание - UPDATE в этой же транзакции
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    quotaLedgerService.refund(chatId, reservedOn, cost);
+                }
+            }
+        });
+    }
+
+    private Counter outcomeCounter(String outcome) {
+        return Counter.builder("bot.quota.reservations")
+                .description("Резервы запросов по результату")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    private static String truncateMessage(String text, int maxLength) {
+        if (text == null || text.length() <= maxLength) {
+            return text;
+        }
+        return text.substring(0, maxLength - 3) + "...";
+    }
+}
@@ -0,0 +1,12 @@
+package com.github.username.service;
+
+/**
+ * Приоритет исходящего сообщения в очереди отправки
+ * Чем выше в списке - тем раньше уходит при нехватке лимита Telegram
+ */
+public enum SendPriority {
+
+    PAYMENT, // Счета и подтверждения оплаты
+    NORMAL, // Ответы на сообщения и команды
+    BULK // Рассылки
+}
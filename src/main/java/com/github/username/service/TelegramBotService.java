@@ -1,44 +1,64 @@
 package com.github.username.service;
 
+import com.github.username.dto.ChatCompletionResult;
+import com.github.username.dto.ChatMessage;
 import com.github.username.entity.User;
-import com.github.username.entity.UsageHistory;
-import com.github.username.repository.UserRepository;
-import com.github.username.repository.UsageRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.transaction.annotation.Transactional;
 
-import java.time.LocalDateTime;
+import java.util.List;
 import java.util.Optional;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TelegramBotService {
-    private final UserRepository userRepository;
-    private final UsageRepository usageRepository;
-    private final OpenAIService openAIService;
+    private final UserCache userCache;
+    private final QuotaService quotaService;
+    private final QuotaLedgerService quotaLedgerService;
+    private final ChatCompletionGateway chatGateway;
+    private final ConversationMemory conversationMemory;
     private final PaymentService paymentService;
     private final TelegramMessageService messageService;
+    private final TokenCounter tokenCounter;
 
     @Value("${usage.daily.free:10}")
     private int dailyFreeLimit;
 
-    @Transactional
-    public void processMessage(Long chatId, String messageText, String firstName, String lastName, String username) {
-        // Найти или создать пользователя
-        User user = userRepository.findById(chatId)
-                .orElseGet(() -> createNewUser(chatId, firstName, lastName, username));
+    @Value("${openai.stream:false}")
+    private boolean streamResponses; // Показывать ответ по мере генерации
+
+    @Value("${ai.prompt.max-tokens:1500}")
+    private int maxPromptTokens;
 
-        // Обновить активность
-        user.setLastActivity(LocalDateTime.now());
+    @Value("${ai.prompt.overflow:reject}")
+    private String promptOverflow; // reject - отказать, trim - отправить начало сообщения
 
-        // Проверить лимиты
-        user.resetDailyLimitIfNeeded();
+    /**
+     * Обрабатывает AI запрос без транзакции на все время ответа:
+     * лимит резервируется и подтверждается короткими транзакциями в QuotaService,
+     * а пока OpenAI генерирует ответ, соединение с БД не занято
+     */
+    public void processMessage(Long chatId, String messageText, String firstName, String lastName, String username) {
+        // Слишком длинный запрос не отправляем в OpenAI целиком: он не влезет в контекст и дорого стоит
+        int promptTokens = tokenCounter.count(messageText);
+        if (promptTokens > maxPromptTokens) {
+            if (!"trim".equalsIgnoreCase(promptOverflow)) {
+                log.info("Rejected prompt from {}: {} tokens > {}", chatId, promptTokens, maxPromptTokens);
+                messageService.sendMessage(chatId, BotMessages.promptTooLong(promptTokens, maxPromptTokens));
+                return;
+            }
+            log.info("Trimmed prompt from {}: {} tokens > {}", chatId, promptTokens, maxPromptTokens);
+            messageText = tokenCounter.truncate(messageText, maxPromptTokens);
+            promptTokens = tokenCounter.count(messageText);
+            messageService.sendMessage(chatId, BotMessages.promptTrimmed(maxPromptTokens));
+        }
 
-        if (user.getDailyRequestsUsed() >= dailyFreeLimit && user.getBalance() <= 0) {
+        // Шаг 1: резервируем запрос (создает пользователя при первом обращении)
+        Optional<QuotaService.Reservation> reserved = quotaService.reserve(chatId, firstName, lastName, username);
+        if (reserved.isEmpty()) {
             String limitMessage = "❌ Вы использовали все бесплатные запросы на сегодня (" + dailyFreeLimit + ").\n\n" +
                     "💳 Чтобы продолжить, пополните баланс:\n" +
                     "• 10 запросов - 1$\n" +
@@ -49,57 +69,54 @@ public class TelegramBotService {
             messageService.sendMessage(chatId, limitMessage);
             return;
         }
+        QuotaService.Reservation reservation = reserved.get();
 
-        // Отправляем сообщение "обрабатывается"
-        messageService.sendMessage(chatId, "⏳ Обрабатываю ваш запрос...");
+        // Показываем, что запрос в работе; ответ потом заменит заглушку, а не придет вторым сообщением
+        PendingReply reply = messageService.startReply(chatId);
 
-        // Получить ответ от OpenAI
+        // Шаг 2: получить ответ от OpenAI
         String response;
+        boolean committed = false;
         try {
-            response = openAIService.getChatResponse(messageText);
-
-            // Записать использование
-            UsageHistory usage = new UsageHistory();
-            usage.setUser(user);
-            usage.setMessage(messageText);
-            usage.setResponse(response);
-            usage.setTokensUsed(response.length() / 4);
-            usage.setCost(0.0);
-
-            usageRepository.save(usage);
-
-            // Обновить счетчики
-            user.setDailyRequestsUsed(user.getDailyRequestsUsed() + 1);
-            user.setTotalRequests(user.getTotalRequests() + 1);
-            user.setLastRequestDate(LocalDateTime.now());
-
-            userRepository.save(user);
+            User user = userCache.find(chatId).orElseThrow();
+            List<ChatMessage> history = conversationMemory.history(user);
+            ChatCompletionResult result = chatGateway.complete(messageText, history,
+                    streamResponses ? reply::update : null);
+            response = result.text();
+
+            // Шаг 3: записать использование; ошибка AI лимит не расходует
+            if (result.ok()) {
+                conversationMemory.append(user, messageText, response);
+                // Токены по данным OpenAI; если их нет (ответ из кэша или чужого одновременного запроса) - локальный подсчет
+                int tokensUsed = result.hasUsage() ? result.totalTokens() : promptTokens + tokenCounter.count(response);
+                quotaService.commit(reservation, messageText, response, tokensUsed);
+                committed = true;
+            }
 
         } catch (Exception e) {
             log.error("Error processing message", e);
             response = "⚠️ Произошла ошибка при обработке запроса. Пожалуйста, попробуйте позже.";
+        } finally {
+            if (!committed) {
+                releaseQuietly(reservation);
+            }
         }
 
         // Отправляем ответ пользователю
-        messageService.sendMessage(chatId, response);
+        reply.complete(response);
     }
 
-    private User createNewUser(Long chatId, String firstName, String lastName, String username) {
-        User user = new User();
-        user.setChatId(chatId);
-        user.setFirstName(firstName);
-        user.setLastName(lastName);
-        user.setUsername(username);
-        user.setPlan("FREE");
-        user.setDailyRequestsUsed(0);
-        user.setTotalRequests(0);
-        user.setBalance(0.0);
-
-        return userRepository.save(user);
+    private void releaseQuietly(QuotaService.Reservation reservation) {
+        try {
+            quotaService.release(reservation);
+        } catch (Exception e) {
+            // Резерв вернет планировщик по истечении
+            log.error("Failed to release quota reservation {}", reservation.id(), e);
+        }
     }
 
     public String getUserStats(Long chatId) {
-        Optional<User> userOpt = userRepository.findById(chatId);
+        Optional<User> userOpt = userCache.find(chatId).map(quotaLedgerService::applyPending);
         if (userOpt.isEmpty()) {
             return "Пользователь не найден";
         }
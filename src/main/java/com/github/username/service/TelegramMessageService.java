@@ -1,63 +1,124 @@
 package com.github.username.service;
 
-import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.model.request.ChatAction;
+import com.pengrad.telegrambot.request.EditMessageText;
+import com.pengrad.telegrambot.request.SendChatAction;
 import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.BaseResponse;
 import com.pengrad.telegrambot.response.SendResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TelegramMessageService {
 
-    private final TelegramBot bot; // ✅ Получаем бин через конструктор
+    static final int MAX_MESSAGE_LENGTH = 4096; // Лимит Telegram на длину сообщения
+
+    private static final String PROCESSING_MESSAGE = "⏳ Обрабатываю ваш запрос...";
+
+    private final OutboundMessageScheduler outboundScheduler; // Отправка идет через очередь с лимитами Telegram
+
+    @Value("${bot.reply.mode:edit}")
+    private String replyMode; // edit - заглушка, которая заменяется ответом; typing - индикатор "печатает"
 
-    public boolean sendMessage(Long chatId, String text) {
-        if (bot == null) {
-            log.error("Bot not initialized");
-            return false;
+    @Value("${bot.reply.edit-interval-ms:1500}")
+    private long editIntervalMillis; // Как часто обновлять заглушку при потоковом ответе
+
+    public CompletableFuture<SendResponse> sendMessage(Long chatId, String text) {
+        return sendMessage(chatId, text, SendPriority.NORMAL);
+    }
+
+    /**
+     * Ставит сообщение в очередь отправки и сразу возвращает управление
+     * Повторы при 429 и 5xx выполняет OutboundMessageScheduler.
+     * Длинный текст уходит несколькими сообщениями подряд
+     *
+     * @return future с ответом Telegram на последнюю часть (isOk() == false, если Telegram отказал)
+     */
+    public CompletableFuture<SendResponse> sendMessage(Long chatId, String text, SendPriority priority) {
+        List<String> parts = splitMessage(text);
+        CompletableFuture<SendResponse> last = null;
+        for (String part : parts) {
+            last = sendPart(chatId, part, priority);
         }
+        return last;
+    }
 
-        // Ограничиваем длину сообщения для Telegram (4096 символов)
-        if (text.length() > 4096) {
-            text = text.substring(0, 4090) + "...";
+    /**
+     * Начинает ответ на AI запрос: показывает пользователю, что запрос в работе
+     * В режиме edit отправляет заглушку и запоминает ее message_id, в режиме typing - только индикатор.
+     * В обоих случаях сам ответ потом стоит одного сообщения, а не двух
+     */
+    public PendingReply startReply(Long chatId) {
+        if ("typing".equalsIgnoreCase(replyMode)) {
+            outboundScheduler.submit(chatId, new SendChatAction(chatId, ChatAction.typing), SendPriority.NORMAL)
+                    .exceptionally(e -> null); // Индикатор не важен, ошибку уже залогировал планировщик
+            return new PendingReply(this, chatId, null, 0);
         }
+        return new PendingReply(this, chatId, sendPart(chatId, PROCESSING_MESSAGE, SendPriority.NORMAL),
+                TimeUnit.MILLISECONDS.toNanos(editIntervalMillis));
+    }
 
-        try {
-            SendMessage request = new SendMessage(chatId, text);
-            SendResponse response = bot.execute(request);
+    /**
+     * Заменяет текст уже отправленного сообщения
+     */
+    public CompletableFuture<BaseResponse> editMessage(Long chatId, int messageId, String text) {
+        return outboundScheduler.submit(chatId, new EditMessageText(chatId, messageId, text), SendPriority.NORMAL)
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        log.error("Error editing message {} in chat {}", messageId, chatId, error);
+                    } else if (!response.isOk()) {
+                        log.error("Failed to edit message {} in chat {}: {}", messageId, chatId, response.description());
+                    }
+                });
+    }
 
-            if (response.isOk()) {
-                log.debug("Message sent to chat {}: {}", chatId,
-                        text.substring(0, Math.min(50, text.length())) + "...");
-                return true;
-            } else {
-                log.error("Failed to send message to chat {}: {}", chatId, response.description());
-                return false;
-            }
-        } catch (Exception e) {
-            log.error("Error sending message to chat {}", chatId, e);
-            return false;
-        }
+    private CompletableFuture<SendResponse> sendPart(Long chatId, String text, SendPriority priority) {
+        String preview = text.substring(0, Math.min(50, text.length()));
+        return outboundScheduler.submit(chatId, new SendMessage(chatId, text), priority)
+                .whenComplete((response, error) -> {
+                    if (error != null) {
+                        log.error("Error sending message to chat {}", chatId, error);
+                    } else if (response.isOk()) {
+                        log.debug("Message sent to chat {}: {}...", chatId, preview);
+                    } else {
+                        log.error("Failed to send message to chat {}: {}", chatId, response.description());
+                    }
+                });
     }
 
-    // Дополнительный метод для отправки сообщений с обработкой ошибок
-    public void sendMessageWithRetry(Long chatId, String text, int maxRetries) {
-        for (int i = 0; i < maxRetries; i++) {
-            if (sendMessage(chatId, text)) {
-                return; // Успешно отправлено
+    /**
+     * Делит текст на части не длиннее лимита Telegram
+     * Режет по переводу строки или пробелу, если они есть во второй половине части
+     */
+    static List<String> splitMessage(String text) {
+        List<String> parts = new ArrayList<>();
+        int start = 0;
+        while (text.length() - start > MAX_MESSAGE_LENGTH) {
+            int end = start + MAX_MESSAGE_LENGTH;
+            int cut = text.lastIndexOf('\n', end - 1);
+            if (cut < start + MAX_MESSAGE_LENGTH / 2) {
+                cut = text.lastIndexOf(' ', end - 1);
             }
-
-            try {
-                Thread.sleep(1000 * (i + 1)); // Увеличиваем задержку при каждой попытке
-            } catch (InterruptedException ie) {
-                Thread.currentThread().interrupt();
-                break;
+            if (cut < start + MAX_MESSAGE_LENGTH / 2) {
+                cut = Character.isHighSurrogate(text.charAt(end - 1)) ? end - 1 : end;
+                parts.add(text.substring(start, cut));
+                start = cut;
+            } else {
+                parts.add(text.substring(start, cut));
+                start = cut + 1; // Разделитель не переносим в начало следующей части
             }
         }
-
-        log.error("Failed to send message to chat {} after {} retries", chatId, maxRetries);
+        parts.add(text.substring(start));
+        return parts;
     }
-}
\ No newline at end of file
+}
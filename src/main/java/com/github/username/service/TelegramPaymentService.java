@@ -1,9 +1,7 @@
 package com.github.username.service;
 
-import com.pengrad.telegrambot.TelegramBot;
 import com.pengrad.telegrambot.model.request.LabeledPrice;
 import com.pengrad.telegrambot.request.SendInvoice;
-import com.pengrad.telegrambot.response.SendResponse;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -12,13 +10,14 @@ import org.springframework.stereotype.Service;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TelegramPaymentService {
 
-    private final TelegramBot bot;
+    private final OutboundMessageScheduler outboundScheduler; // Счета уходят с приоритетом платежей
     private final UserService userService;
     private final TelegramMessageService messageService;
 
@@ -32,17 +31,19 @@ public class TelegramPaymentService {
 
     /**
      * Отправляет счет пользователю через Telegram Payments
+     *
+     * @return future с результатом; вызывающий поток не ждет ответа Telegram
      */
-    public boolean sendInvoice(Long chatId, String packageType) {
+    public CompletableFuture<Boolean> sendInvoice(Long chatId, String packageType) {
         if (providerToken == null || providerToken.isEmpty()) {
             log.error("Payment provider token is not configured");
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         PackageInfo packageInfo = getPackageInfo(packageType);
         if (packageInfo == null) {
             log.error("Invalid package type: {}", packageType);
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
 
         try {
@@ -75,29 +76,33 @@ public class TelegramPaymentService {
                     .sendPhoneNumberToProvider(false)
                     .sendEmailToProvider(false);
 
-            SendResponse response = bot.execute(invoice);
-
-            if (response.isOk()) {
-                log.info("✅ Invoice sent successfully to user {} for package {}", chatId, packageType);
-                return true;
-            } else {
-                log.error("❌ Failed to send invoice: {}", response.description());
-                return false;
-            }
+            return outboundScheduler.submit(chatId, invoice, SendPriority.PAYMENT)
+                    .handle((response, error) -> {
+                        if (error != null) {
+                            log.error("❌ Error sending invoice", error);
+                            return false;
+                        }
+                        if (response.isOk()) {
+                            log.info("✅ Invoice sent successfully to user {} for package {}", chatId, packageType);
+                            return true;
+                        }
+                        log.error("❌ Failed to send invoice: {}", response.description());
+                        return false;
+                    });
 
         } catch (Exception e) {
             log.error("❌ Error sending invoice", e);
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
     }
 
     /**
      * Альтернативный метод если первый не работает
      */
-    public boolean sendInvoiceAlternative(Long chatId, String packageType) {
+    public CompletableFuture<Boolean> sendInvoiceAlternative(Long chatId, String packageType) {
         try {
             PackageInfo packageInfo = getPackageInfo(packageType);
-            if (packageInfo == null) return false;
+            if (packageInfo == null) return CompletableFuture.completedFuture(false);
 
             String payload = UUID.randomUUID().toString();
             paymentSessions.put(payload, packageType);
@@ -122,13 +127,12 @@ public class TelegramPaymentService {
                     .needShippingAddress(false)
                     .isFlexible(false);
 
-            SendResponse response = bot.execute(invoice);
-
-            return response.isOk();
+            return outboundScheduler.submit(chatId, invoice, SendPriority.PAYMENT)
+                    .handle((response, error) -> error == null && response.isOk());
 
         } catch (Exception e) {
             log.error("❌ Error sending invoice (alternative)", e);
-            return false;
+            return CompletableFuture.completedFuture(false);
         }
     }
 
@@ -161,7 +165,7 @@ public class TelegramPaymentService {
                         "💰 Новый баланс: $" + String.format("%.2f", newBalance) + "\n\n" +
                         "Теперь вы можете продолжать общение с ботом! 🚀";
 
-                messageService.sendMessage(chatId, message);
+                messageService.sendMessage(chatId, message, SendPriority.PAYMENT);
             }
         } catch (Exception e) {
             log.error("❌ Error processing payment", e);
@@ -1,32 +1,93 @@
 package com.github.username.service;
 
+import com.github.username.dto.TelegramUpdate;
 import com.pengrad.telegrambot.TelegramBot;
-import com.pengrad.telegrambot.UpdatesListener;
-import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.Chat;
 import com.pengrad.telegrambot.model.Message;
-import com.pengrad.telegrambot.model.SuccessfulPayment;
 import com.pengrad.telegrambot.model.PreCheckoutQuery;
-import com.pengrad.telegrambot.request.AnswerPreCheckoutQuery;
+import com.pengrad.telegrambot.model.SuccessfulPayment;
+import com.pengrad.telegrambot.model.Update;
+import com.pengrad.telegrambot.model.User;
 import com.pengrad.telegrambot.request.DeleteWebhook;
+import com.pengrad.telegrambot.request.GetUpdates;
+import com.pengrad.telegrambot.response.GetUpdatesResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import jakarta.annotation.PostConstruct;
-import java.util.List;
-
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Получение обновлений через long polling (GetUpdates)
+ * Offset, который видит Telegram, - самое раннее обновление, работа по которому не закончена
+ * (AI задача еще в очереди или выполняется). Он сохраняется в файл: после падения Telegram
+ * отдаст незавершенные обновления заново. Уже принятые в этом запуске обновления,
+ * которые Telegram возвращает повторно, пропускаются здесь; завершенные до рестарта
+ * отсеивает UpdateDeduplicator, который хранит их в файле.
+ *
+ * getUpdates отдает не больше limit обновлений начиная с offset, поэтому между offset и
+ * следующим непрочитанным обновлением может быть не больше bot.polling.max-unfinished (<= limit,
+ * у Telegram limit не больше 100): это предел AI работы в polling режиме, в том числе из-за одного
+ * медленного запроса. Пока AI очереди выше bot.polling.high-water-mark (ниже max-unfinished)
+ * или окно заполнено, новые обновления не запрашиваются:
+ * Telegram хранит их у себя и отдаст, когда бот разгрузится
+ */
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class TelegramPollingService {
 
     private final TelegramBot bot;
-    private final TelegramBotService botService;
-    private final TelegramMessageService messageService;
-    private final TelegramPaymentService paymentService;
+    private final UpdateDispatcher updateDispatcher;
+    private final AiTaskExecutor aiTaskExecutor;
+    private final ChatMailboxDispatcher mailboxDispatcher;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bot.polling.limit:100}")
+    private int limit; // Сколько обновлений забирать за один запрос
+
+    @Value("${bot.polling.timeout:25}")
+    private int timeoutSeconds; // Сколько Telegram держит запрос, если обновлений нет
+
+    @Value("${bot.polling.max-unfinished:100}")
+    private int maxUnfinished; // Обновлений между подтвержденным offset и следующим непрочитанным
+
+    @Value("${bot.polling.high-water-mark:80}")
+    private int highWaterMark; // При стольких ожидающих AI задачах чтение приостанавливается
+
+    @Value("${bot.polling.pause-ms:500}")
+    private long pauseMillis;
+
+    @Value("${bot.polling.offset-file:./data/polling.offset}")
+    private String offsetFile;
+
+    private MappedByteBuffer offsetStore;
+    private volatile int offset; // Подтвержденный offset: самое раннее незавершенное обновление
+    private volatile int readUpTo; // update_id следующего обновления, которое еще не передавали в обработку
+    private final Object progressLock = new Object();
+    private final TreeSet<Integer> inFlight = new TreeSet<>(); // Под progressLock
+    private volatile boolean running;
+    private Thread pollerThread;
+    private Counter pauseCounter;
 
     @PostConstruct
-    public void init() {
+    public void init() throws IOException {
         log.info("🚀 Запуск Telegram Polling Service...");
 
         try {
@@ -42,299 +103,256 @@ public class TelegramPollingService {
             log.info("ℹ️ Webhook не был установлен или произошла ошибка: {}", e.getMessage());
         }
 
-        bot.setUpdatesListener(new UpdatesListener() {
-            @Override
-            public int process(List<Update> updates) {
-                for (Update update : updates) {
-                    processUpdate(update);
-                }
-                return UpdatesListener.CONFIRMED_UPDATES_ALL;
-            }
-        });
-
-        log.info("✅ Telegram Polling Service успешно запущен!");
-    }
-
-    private void processUpdate(Update update) {
-        try {
-            if (update.message() != null && update.message().text() != null) {
-                handleTextMessage(update.message());
-            }
-
-            if (update.preCheckoutQuery() != null) {
-                handlePreCheckoutQuery(update.preCheckoutQuery());
-            }
-
-            if (update.message() != null && update.message().successfulPayment() != null) {
-                handleSuccessfulPayment(update.message());
-            }
+        if (maxUnfinished < 1 || maxUnfinished > limit) {
+            // Иначе getUpdates будет возвращать одни уже прочитанные обновления и чтение встанет
+            throw new IllegalStateException("bot.polling.max-unfinished must be between 1 and bot.polling.limit ("
+                    + limit + "), got " + maxUnfinished);
+        }
+        if (highWaterMark >= maxUnfinished) {
+            log.warn("bot.polling.high-water-mark ({}) is not below bot.polling.max-unfinished ({}): "
+                    + "polling pauses on unfinished updates before AI queues reach it", highWaterMark, maxUnfinished);
+        }
 
-        } catch (Exception e) {
-            log.error("❌ Ошибка при обработке обновления", e);
+        Path path = Paths.get(offsetFile);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            offsetStore = channel.map(FileChannel.MapMode.READ_WRITE, 0, Integer.BYTES);
         }
+        offset = offsetStore.getInt(0);
+        readUpTo = offset;
+
+        pauseCounter = Counter.builder("bot.polling.paused")
+                .description("Паузы чтения обновлений из-за переполненных AI очередей")
+                .register(meterRegistry);
+        Gauge.builder("bot.polling.offset", this, service -> service.offset)
+                .description("Последний подтвержденный offset")
+                .register(meterRegistry);
+
+        running = true;
+        pollerThread = new Thread(this::pollLoop, "telegram-poller");
+        pollerThread.setDaemon(true);
+        pollerThread.start();
+
+        log.info("✅ Telegram Polling Service успешно запущен! Продолжаем с offset {}", offset);
     }
 
-    private void handleTextMessage(Message message) {
-        Long chatId = message.chat().id();
-        String text = message.text();
-        String firstName = message.chat().firstName();
-        String lastName = message.chat().lastName() != null ? message.chat().lastName() : "";
-        String username = message.chat().username() != null ? message.chat().username() : "";
+    /**
+     * Останавливает чтение новых обновлений
+     * Уже полученные, но неподтвержденные обновления Telegram отдаст после рестарта
+     */
+    public void stopIngestion() {
+        running = false;
+    }
 
-        log.info("📨 Получено сообщение от {} ({}): {}", firstName, chatId, text);
+    /**
+     * Освобождает poller: прерывает текущий long polling запрос и закрывает HTTP клиент бота
+     * Вызывается последним при остановке - после того, как отправлены все исходящие сообщения
+     */
+    @PreDestroy
+    public void release() {
+        stopIngestion();
+        Thread poller = pollerThread;
+        if (poller == null) {
+            return;
+        }
 
-        if (text.startsWith("/")) {
-            handleCommand(chatId, text, firstName);
-        } else {
-            handleTextMessage(chatId, text, firstName, lastName, username);
+        bot.shutdown();
+        poller.interrupt();
+        try {
+            poller.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
+        pollerThread = null;
     }
 
-    private void handleCommand(Long chatId, String command, String firstName) {
-        log.info("🔧 Обработка команды: {} от пользователя {}", command, chatId);
-
-        switch (command) {
-            case "/start":
-                handleStartCommand(chatId, firstName);
-                break;
-
-            case "/stats":
-                handleStatsCommand(chatId);
-                break;
-
-            case "/payment":
-                handlePaymentCommand(chatId);
-                break;
+    private void pollLoop() {
+        while (running) {
+            if (isOverloaded() || isWindowFull()) {
+                pauseCounter.increment();
+                log.debug("AI queues are above the high-water mark or too many updates are unfinished, pausing polling");
+                pause(pauseMillis);
+                continue;
+            }
 
-            case "/buy_10":
-            case "/buy_50":
-            case "/buy_100":
-                handleBuyCommand(chatId, command.substring(5));
-                break;
+            GetUpdatesResponse response;
+            try {
+                response = bot.execute(new GetUpdates()
+                        .offset(offset)
+                        .limit(limit)
+                        .timeout(timeoutSeconds));
+            } catch (Exception e) {
+                if (running) {
+                    log.error("❌ Ошибка при получении обновлений", e);
+                    pause(pauseMillis);
+                }
+                continue;
+            }
 
-            case "/help":
-                handleHelpCommand(chatId);
-                break;
+            if (!response.isOk() || response.updates() == null) {
+                log.error("❌ Telegram вернул ошибку getUpdates: {}", response.description());
+                pause(pauseMillis);
+                continue;
+            }
 
-            default:
-                handleUnknownCommand(chatId);
+            boolean accepted = false;
+            for (Update update : response.updates()) {
+                if (update.updateId() < readUpTo) {
+                    continue; // Уже в работе или выполнено - Telegram вернул его, пока offset стоит на незавершенном
+                }
+                // Остаток пачки не принимаем - Telegram отдаст его повторно
+                if (!running || isOverloaded()) {
+                    break;
+                }
+                processUpdate(update);
+                accepted = true;
+            }
+            if (!accepted && !response.updates().isEmpty()) {
+                // Пришли только повторы: не крутим цикл, пока ранние обновления в работе
+                pause(pauseMillis);
+            }
         }
-    }
 
-    private void handleStartCommand(Long chatId, String firstName) {
-        String welcomeMessage = "🤖 Добро пожаловать, " + firstName + "!\n\n" +
-                "Я - AI помощник на основе ChatGPT. Задавайте мне любые вопросы!\n\n" +
-                "📊 Статистика: /stats\n" +
-                "💳 Пополнить баланс: /payment\n" +
-                "🆘 Помощь: /help\n\n" +
-                "🎯 Сегодня у вас **10 бесплатных запросов**!\n" +
-                "💎 После лимита - докупайте дополнительные запросы";
-
-        messageService.sendMessage(chatId, welcomeMessage);
-        log.info("✅ Приветствие отправлено пользователю {}", chatId);
+        log.info("Telegram poller stopped at offset {}", offset);
     }
 
-    private void handleStatsCommand(Long chatId) {
-        String stats = botService.getUserStats(chatId);
-        messageService.sendMessage(chatId, stats);
-        log.info("📊 Статистика отправлена пользователю {}", chatId);
+    private boolean isOverloaded() {
+        return aiTaskExecutor.getQueueDepth() + mailboxDispatcher.getPendingCount() >= highWaterMark;
     }
 
-    private void handlePaymentCommand(Long chatId) {
-        String paymentInfo = "💳 **Доступные пакеты запросов:**\n\n" +
-                "🔹 **10 запросов** - 100 руб.\n" +
-                "   Команда: /buy_10\n\n" +
-                "🔹 **50 запросов** - 400 руб. (экономия 100 руб.)\n" +
-                "   Команда: /buy_50\n\n" +
-                "🔹 **100 запросов** - 700 руб. (экономия 300 руб.)\n" +
-                "   Команда: /buy_100\n\n" +
-                "💎 **Почему выгоднее покупать больше?**\n" +
-                "• 10 запросов: 10 руб./запрос\n" +
-                "• 50 запросов: 8 руб./запрос\n" +
-                "• 100 запросов: 7 руб./запрос\n\n" +
-                "⚡ После оплаты запросы автоматически добавятся к вашему балансу!";
-
-        messageService.sendMessage(chatId, paymentInfo);
-        log.info("💳 Информация об оплате отправлена пользователю {}", chatId);
+    /**
+     * Между подтвержденным offset и следующим непрочитанным обновлением уже max-unfinished:
+     * следующая страница getUpdates не вместит новых обновлений
+     */
+    private boolean isWindowFull() {
+        return readUpTo - offset >= maxUnfinished;
     }
 
-    private void handleBuyCommand(Long chatId, String packageType) {
-        log.info("🛒 Запрос на покупку от пользователя {}: пакет {}", chatId, packageType);
-
-        if (!isValidPackageType(packageType)) {
-            log.warn("⚠️ Пользователь {} запросил невалидный пакет: {}", chatId, packageType);
-            messageService.sendMessage(chatId,
-                    "❌ Неверный тип пакета. Используйте /buy_10, /buy_50 или /buy_100");
-            return;
-        }
-
-        String packageInfo = getPackageDisplayInfo(packageType);
-        messageService.sendMessage(chatId,
-                "💳 **Подготовка счета для оплаты...**\n\n" + packageInfo);
-
-        if (paymentService.sendInvoice(chatId, packageType)) {
-            log.info("✅ Счет для пакета {} отправлен пользователю {}", packageType, chatId);
-
-            String instructionMessage = "📋 **Инструкция по оплате (ТЕСТОВЫЙ РЕЖИМ):**\n\n" +
-                    "1. 🪟 Откроется окно оплаты Telegram\n" +
-                    "2. 💳 Введите данные **тестовой карты**:\n" +
-                    "   • Номер: `4111 1111 1111 1111`\n" +
-                    "   • Срок: любая будущая дата\n" +
-                    "   • CVV: любые 3 цифры\n" +
-                    "3. ✅ Подтвердите оплату\n\n" +
-                    "💡 **Важно:** Это тестовый платеж, реальные деньги **не списываются**!\n" +
-                    "🔒 Все платежи защищены Telegram Payments";
-
-            messageService.sendMessage(chatId, instructionMessage);
-
-        } else {
-            log.error("❌ Не удалось отправить счет пользователю {} для пакета {}", chatId, packageType);
-
-            String errorMessage = "❌ **Не удалось создать счет для оплаты**\n\n" +
-                    "Возможные причины:\n" +
-                    "• Платежная система временно недоступна\n" +
-                    "• Технические работы\n" +
-                    "• Проблемы с подключением\n\n" +
-                    "🔄 Пожалуйста, попробуйте позже\n" +
-                    "🔧 Или обратитесь в поддержку";
-
-            messageService.sendMessage(chatId, errorMessage);
+    /**
+     * Запоминает обновление, переданное в обработку
+     *
+     * @return подтверждение обработки; повторный вызов ничего не делает
+     */
+    private Runnable track(int updateId) {
+        synchronized (progressLock) {
+            inFlight.add(updateId);
+            readUpTo = updateId + 1;
+            updateOffset();
         }
+        AtomicBoolean finished = new AtomicBoolean();
+        return () -> {
+            if (finished.compareAndSet(false, true)) {
+                synchronized (progressLock) {
+                    inFlight.remove(updateId);
+                    updateOffset();
+                }
+            }
+        };
     }
 
-    private void handleHelpCommand(Long chatId) {
-        String helpMessage = "🆘 **Помощь по боту:**\n\n" +
-                "🤖 **Основные функции:**\n" +
-                "• Просто напишите вопрос - и я отвечу!\n" +
-                "• Бесплатно: 10 запросов в день\n" +
-                "• После лимита - докупайте дополнительные запросы\n\n" +
-                "💎 **Система оплаты:**\n" +
-                "• Оплата через Telegram Payments\n" +
-                "• Безопасно и удобно\n" +
-                "• Моментальное пополнение баланса\n\n" +
-                "📋 **Доступные команды:**\n" +
-                "/start - начать работу\n" +
-                "/stats - ваша статистика\n" +
-                "/payment - информация об оплате\n" +
-                "/buy_10 - купить 10 запросов (100 руб.)\n" +
-                "/buy_50 - купить 50 запросов (400 руб.)\n" +
-                "/buy_100 - купить 100 запросов (700 руб.)\n" +
-                "/help - эта справка";
-
-        messageService.sendMessage(chatId, helpMessage);
-        log.info("🆘 Справка отправлена пользователю {}", chatId);
+    /**
+     * Подтверждает обновления до самого раннего незавершенного и сохраняет позицию; под progressLock
+     */
+    private void updateOffset() {
+        int nextOffset = inFlight.isEmpty() ? readUpTo : inFlight.first();
+        if (nextOffset != offset) {
+            offset = nextOffset;
+            offsetStore.putInt(0, nextOffset);
+        }
     }
 
-    private void handleUnknownCommand(Long chatId) {
-        messageService.sendMessage(chatId,
-                "❌ Неизвестная команда. Используйте /help для просмотра доступных команд.");
-        log.warn("⚠️ Пользователь {} отправил неизвестную команду", chatId);
+    private void pause(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
     }
 
-    /**
-     * Обрабатывает предварительные запросы оплаты (pre-checkout)
-     */
-    private void handlePreCheckoutQuery(PreCheckoutQuery preCheckoutQuery) {
+    private void processUpdate(Update update) {
+        Runnable done = track(update.updateId());
         try {
-            Long userId = preCheckoutQuery.from().id();
-            String payload = preCheckoutQuery.invoicePayload();
-
-            log.info("🔄 Pre-checkout запрос от пользователя {}: payload {}", userId, payload);
-
-            // ✅ ВАРИАНТ 1: Просто создаем объект - возможно он по умолчанию подтверждает запрос
-            AnswerPreCheckoutQuery answer = new AnswerPreCheckoutQuery(preCheckoutQuery.id());
-            bot.execute(answer);
-
-            log.info("✅ Pre-checkout запрос подтвержден для пользователя {}", userId);
-
+            updateDispatcher.dispatch(toDto(update), done);
         } catch (Exception e) {
-            log.error("❌ Ошибка при обработке pre-checkout запроса", e);
-
-            try {
-                // ✅ ВАРИАНТ 2: Просто создаем объект без дополнительных параметров
-                AnswerPreCheckoutQuery answer = new AnswerPreCheckoutQuery(preCheckoutQuery.id());
-                bot.execute(answer);
-                log.warn("⚠️ Pre-checkout запрос обработан с ошибкой для пользователя {}", preCheckoutQuery.from().id());
-
-            } catch (Exception ex) {
-                log.error("❌ Ошибка при обработке pre-checkout запроса с ошибкой", ex);
-            }
+            log.error("❌ Ошибка при обработке обновления", e);
+            done.run();
         }
     }
 
     /**
-     * Обрабатывает успешные платежи
-     * Вызывается когда платеж успешно завершен
+     * Переводит обновление pengrad в TelegramUpdate, с которым работает UpdateDispatcher
+     * Копируются только поля, которые бот использует
      */
-    private void handleSuccessfulPayment(Message message) {
-        try {
-            SuccessfulPayment payment = message.successfulPayment();
-            Long chatId = message.chat().id();
-            String payload = payment.invoicePayload();
-            String currency = payment.currency();
-            int totalAmount = payment.totalAmount();
-
-            log.info("💰 Успешный платеж от пользователя {}: {} {}, payload {}",
-                    chatId, totalAmount / 100, currency, payload);
-
-            // Обрабатываем успешный платеж
-            paymentService.handleSuccessfulPayment(payload, chatId);
-
-            // Отправляем подтверждение пользователю
-            String thankYouMessage = "✅ **Оплата прошла успешно!** 🎉\n\n" +
-                    "💳 Сумма: " + (totalAmount / 100) + " " + currency + "\n" +
-                    "📦 Запросы добавлены к вашему балансу!\n\n" +
-                    "💰 Теперь вы можете продолжать общение с ботом!\n" +
-                    "📊 Посмотреть баланс: /stats\n\n" +
-                    "🙏 Спасибо за доверие!";
-
-            messageService.sendMessage(chatId, thankYouMessage);
-            log.info("✅ Подтверждение платежа отправлено пользователю {}", chatId);
+    private static TelegramUpdate toDto(Update update) {
+        TelegramUpdate dto = new TelegramUpdate();
+        dto.setUpdateId(update.updateId() != null ? update.updateId().longValue() : null);
+
+        Message message = update.message();
+        if (message != null) {
+            TelegramUpdate.TelegramMessage messageDto = new TelegramUpdate.TelegramMessage();
+            messageDto.setMessageId(message.messageId() != null ? message.messageId().longValue() : null);
+            messageDto.setFrom(toDto(message.from()));
+            messageDto.setText(message.text());
+
+            Chat chat = message.chat();
+            if (chat != null) {
+                TelegramUpdate.TelegramChat chatDto = new TelegramUpdate.TelegramChat();
+                chatDto.setId(chat.id());
+                chatDto.setFirstName(chat.firstName());
+                chatDto.setLastName(chat.lastName());
+                chatDto.setUsername(chat.username());
+                chatDto.setType(chat.type() != null ? chat.type().name().toLowerCase(Locale.ROOT) : null);
+                messageDto.setChat(chatDto);
+            }
 
-        } catch (Exception e) {
-            log.error("❌ Ошибка при обработке успешного платежа", e);
+            SuccessfulPayment payment = message.successfulPayment();
+            if (payment != null) {
+                TelegramUpdate.TelegramSuccessfulPayment paymentDto = new TelegramUpdate.TelegramSuccessfulPayment();
+                paymentDto.setCurrency(payment.currency());
+                paymentDto.setTotalAmount(payment.totalAmount());
+                paymentDto.setInvoicePayload(payment.invoicePayload());
+                paymentDto.setTelegramPaymentChargeId(payment.telegramPaymentChargeId());
+                paymentDto.setProviderPaymentChargeId(payment.providerPaymentChargeId());
+                messageDto.setSuccessfulPayment(paymentDto);
+            }
+            dto.setMessage(messageDto);
         }
-    }
 
-    private void handleTextMessage(Long chatId, String text, String firstName, String lastName, String username) {
-        new Thread(() -> {
-            try {
-                log.info("🧠 Обработка AI запроса от {}: {}", chatId, text);
-                botService.processMessage(chatId, text, firstName, lastName, username);
+        PreCheckoutQuery query = update.preCheckoutQuery();
+        if (query != null) {
+            TelegramUpdate.TelegramPreCheckoutQuery queryDto = new TelegramUpdate.TelegramPreCheckoutQuery();
+            queryDto.setId(query.id());
+            queryDto.setFrom(toDto(query.from()));
+            queryDto.setCurrency(query.currency());
+            queryDto.setTotalAmount(query.totalAmount());
+            queryDto.setInvoicePayload(query.invoicePayload());
+            dto.setPreCheckoutQuery(queryDto);
+        }
 
-            } catch (Exception e) {
-                log.error("❌ Ошибка при обработке сообщения от {}", chatId, e);
-                messageService.sendMessage(chatId,
-                        "⚠️ Произошла ошибка при обработке вашего запроса. Пожалуйста, попробуйте позже.");
-            }
-        }).start();
-    }
+        if (update.callbackQuery() != null) {
+            TelegramUpdate.TelegramCallbackQuery callbackDto = new TelegramUpdate.TelegramCallbackQuery();
+            callbackDto.setId(update.callbackQuery().id());
+            callbackDto.setFrom(toDto(update.callbackQuery().from()));
+            callbackDto.setData(update.callbackQuery().data());
+            dto.setCallbackQuery(callbackDto);
+        }
 
-    private boolean isValidPackageType(String packageType) {
-        return packageType.equals("10") || packageType.equals("50") || packageType.equals("100");
+        return dto;
     }
 
-    private String getPackageDisplayInfo(String packageType) {
-        switch (packageType) {
-            case "10":
-                return "🔹 **Пакет: 10 запросов**\n" +
-                        "💵 Стоимость: 100 руб.\n" +
-                        "📊 Цена за запрос: 10 руб.\n" +
-                        "⏱ Время обработки: мгновенно";
-            case "50":
-                return "🔹 **Пакет: 50 запросов**\n" +
-                        "💵 Стоимость: 400 руб.\n" +
-                        "📊 Цена за запрос: 8 руб. (экономия 20%!)\n" +
-                        "💰 Экономия: 100 руб.\n" +
-                        "⏱ Время обработки: мгновенно";
-            case "100":
-                return "🔹 **Пакет: 100 запросов**\n" +
-                        "💵 Стоимость: 700 руб.\n" +
-                        "📊 Цена за запрос: 7 руб. (экономия 30%!)\n" +
-                        "💰 Экономия: 300 руб.\n" +
-                        "⏱ Время обработки: мгновенно";
-            default:
-                return "❌ Неизвестный пакет";
+    private static TelegramUpdate.TelegramUser toDto(User user) {
+        if (user == null) {
+            return null;
         }
+        TelegramUpdate.TelegramUser userDto = new TelegramUpdate.TelegramUser();
+        userDto.setId(user.id());
+        userDto.setFirstName(user.firstName());
+        userDto.setLastName(user.lastName());
+        userDto.setUsername(user.username());
+        return userDto;
     }
-}
\ No newline at end of file
+}
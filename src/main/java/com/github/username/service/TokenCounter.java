@@ -0,0 +1,41 @@
+package com.github.username.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Подсчет токенов для бюджета контекста, лимита запроса и учета использования
+ * Считает тем же BPE словарем cl100k_base, что и модель, поэтому кириллица не недооценивается
+ */
+@Slf4j
+@Component
+public class TokenCounter {
+
+    private static final int MESSAGE_OVERHEAD = 4; // Служебные токены роли и разделителей на каждое сообщение
+
+    private final BpeTokenizer tokenizer;
+
+    public TokenCounter() {
+        long startedAt = System.nanoTime();
+        this.tokenizer = BpeTokenizer.cl100k();
+        log.info("Tokenizer vocabulary loaded in {} ms", (System.nanoTime() - startedAt) / 1_000_000);
+    }
+
+    /**
+     * Токены одного сообщения диалога вместе со служебными
+     */
+    public int countMessage(String content) {
+        return count(content) + MESSAGE_OVERHEAD;
+    }
+
+    public int count(String text) {
+        return text == null ? 0 : tokenizer.count(text);
+    }
+
+    /**
+     * Начало текста не длиннее maxTokens токенов
+     */
+    public String truncate(String text, int maxTokens) {
+        return tokenizer.truncate(text, maxTokens);
+    }
+}
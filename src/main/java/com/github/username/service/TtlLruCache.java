@@ -0,0 +1,116 @@
+package com.github.username.service;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Кэш с ограничением по размеру (LRU) и по времени жизни записи
+ * LinkedHashMap в порядке доступа под одним монитором: операции короткие,
+ * а запросы к OpenAI, ради которых кэш нужен, на порядки дольше
+ */
+class TtlLruCache<K, V> {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder sizeEvictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    TtlLruCache(int maxSize, long ttl, TimeUnit unit) {
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() <= TtlLruCache.this.maxSize) {
+                    return false;
+                }
+                sizeEvictions.increment();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * @return значение или null, если записи нет или она устарела
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (System.nanoTime() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            expirations.increment();
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry.value;
+    }
+
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+    }
+
+    /**
+     * @return true, если запись была
+     */
+    synchronized boolean invalidate(K key) {
+        return entries.remove(key) != null;
+    }
+
+    /**
+     * Удаляет записи, ключи которых подходят под условие
+     *
+     * @return сколько записей удалено
+     */
+    synchronized int invalidateIf(Predicate<K> predicate) {
+        int removed = 0;
+        Iterator<K> keys = entries.keySet().iterator();
+        while (keys.hasNext()) {
+            if (predicate.test(keys.next())) {
+                keys.remove();
+                removed++;
+            }
+        }
+        return removed;
+    }
+
+    synchronized int invalidateAll() {
+        int removed = entries.size();
+        entries.clear();
+        return removed;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long hitCount() {
+        return hits.sum();
+    }
+
+    long missCount() {
+        return misses.sum();
+    }
+
+    long sizeEvictionCount() {
+        return sizeEvictions.sum();
+    }
+
+    long expirationCount() {
+        return expirations.sum();
+    }
+
+    private record Entry<V>(V value, long expiresAt) {
+    }
+}
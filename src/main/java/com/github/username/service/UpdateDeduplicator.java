@@ -0,0 +1,172 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Отсев повторных обновлений Telegram по update_id
+ * Telegram повторяет webhook при таймаутах, а polling после рестарта может
+ * получить уже обработанные обновления. Каждый дубль - лишний запрос к OpenAI и списание лимита.
+ *
+ * Память фиксированная: кольцо последних update_id и максимальный виденный id.
+ * update_id у Telegram растут последовательно, поэтому id попадает в ячейку id % размер кольца,
+ * а всё, что старше окна, считается уже обработанным.
+ *
+ * Полученные обновления помнятся только в памяти: обновление, работа по которому не закончена,
+ * после падения должно пройти снова (его повторно отдадут журнал или polling).
+ * Завершенные (markCompleted) пишутся в такое же кольцо в memory-mapped файле bot.dedup.file
+ * вместе с максимальным id; при старте оно загружается в память, и после рестарта
+ * уже выполненные обновления не обрабатываются второй раз
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UpdateDeduplicator {
+
+    private final MeterRegistry meterRegistry;
+
+    private static final int HEADER_LONGS = 2; // Размер кольца и максимальный завершенный id
+
+    @Value("${bot.dedup.window:4096}")
+    private int windowSize;
+
+    @Value("${bot.dedup.file:./data/dedup.window}")
+    private String file; // Пусто - завершенные обновления не сохраняются
+
+    private long[] window;
+    private long highWatermark = -1; // Под this
+    private MappedByteBuffer completedStore; // [размер кольца][максимальный id][кольцо], под this
+
+    private Counter checkedCounter;
+    private Counter duplicateCounter;
+
+    @PostConstruct
+    public void init() throws IOException {
+        window = new long[windowSize];
+        Arrays.fill(window, -1);
+        if (file != null && !file.isBlank()) {
+            loadCompleted();
+        }
+
+        checkedCounter = Counter.builder("bot.updates.dedup.checked")
+                .description("Обновления, прошедшие проверку на дубли")
+                .register(meterRegistry);
+        duplicateCounter = Counter.builder("bot.updates.dedup.duplicates")
+                .description("Отброшенные повторные обновления")
+                .register(meterRegistry);
+        Gauge.builder("bot.updates.dedup.hit.ratio", this, UpdateDeduplicator::hitRatio)
+                .description("Доля дублей среди проверенных обновлений")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Отмечает обновление как полученное
+     *
+     * @return true если обновление видим впервые и его нужно обработать
+     */
+    public synchronized boolean markFirstSeen(long updateId) {
+        checkedCounter.increment();
+
+        boolean duplicate;
+        if (highWatermark >= 0 && updateId <= highWatermark - window.length) {
+            duplicate = true; // Старше окна - давно обработано
+        } else {
+            int slot = (int) Math.floorMod(updateId, (long) window.length);
+            duplicate = window[slot] == updateId;
+            if (!duplicate) {
+                window[slot] = updateId;
+                highWatermark = Math.max(highWatermark, updateId);
+            }
+        }
+
+        if (duplicate) {
+            duplicateCounter.increment();
+            log.info("Skipping duplicate update {}", updateId);
+        }
+        return !duplicate;
+    }
+
+    /**
+     * Отмечает, что работа по обновлению закончена: после рестарта оно будет считаться дублем
+     */
+    public synchronized void markCompleted(long updateId) {
+        if (completedStore == null) {
+            return;
+        }
+        int slot = (int) Math.floorMod(updateId, (long) windowSize);
+        completedStore.putLong((HEADER_LONGS + slot) * Long.BYTES, updateId);
+        if (updateId > completedStore.getLong(Long.BYTES)) {
+            completedStore.putLong(Long.BYTES, updateId);
+        }
+    }
+
+    /**
+     * Открывает файл завершенных обновлений и загружает их в окно
+     * Если размер окна изменился, id переносятся в ячейки нового кольца
+     */
+    private void loadCompleted() throws IOException {
+        Path path = Paths.get(file);
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        long[] stored = new long[0];
+        long storedWatermark = -1;
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long fileSize = channel.size();
+            if (fileSize >= HEADER_LONGS * Long.BYTES) {
+                MappedByteBuffer existing = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+                int storedSize = (int) Math.min(existing.getLong(0), fileSize / Long.BYTES - HEADER_LONGS);
+                storedWatermark = storedSize > 0 ? existing.getLong(Long.BYTES) : -1;
+                stored = new long[Math.max(storedSize, 0)];
+                for (int i = 0; i < stored.length; i++) {
+                    stored[i] = existing.getLong((HEADER_LONGS + i) * Long.BYTES);
+                }
+            }
+            completedStore = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) (HEADER_LONGS + windowSize) * Long.BYTES);
+        }
+        if (stored.length != windowSize) {
+            if (stored.length > 0) {
+                log.warn("Dedup window size changed from {} to {}, rehashing completed updates", stored.length, windowSize);
+            }
+            completedStore.putLong(0, windowSize);
+            completedStore.putLong(Long.BYTES, storedWatermark);
+            for (int slot = 0; slot < windowSize; slot++) {
+                completedStore.putLong((HEADER_LONGS + slot) * Long.BYTES, -1);
+            }
+            for (long updateId : stored) {
+                if (updateId >= 0 && updateId > storedWatermark - windowSize) {
+                    markCompleted(updateId);
+                }
+            }
+        }
+
+        for (int slot = 0; slot < windowSize; slot++) {
+            window[slot] = completedStore.getLong((HEADER_LONGS + slot) * Long.BYTES);
+        }
+        highWatermark = completedStore.getLong(Long.BYTES);
+        if (highWatermark >= 0) {
+            log.info("Loaded completed updates up to {} for deduplication", highWatermark);
+        }
+    }
+
+    private double hitRatio() {
+        double checked = checkedCounter.count();
+        return checked == 0 ? 0.0 : duplicateCounter.count() / checked;
+    }
+}
@@ -0,0 +1,312 @@
+package com.github.username.service;
+
+import com.github.username.dto.TelegramUpdate;
+import com.github.username.dto.WebhookMethodCall;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.AnswerPreCheckoutQuery;
+import com.pengrad.telegrambot.response.BaseResponse;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Единая точка обработки обновлений Telegram
+ * Polling и webhook приводят обновление к TelegramUpdate и передают сюда:
+ * дубли отсеиваются, команды идут в CommandRegistry, обычный текст - в AI очередь чата
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UpdateDispatcher {
+
+    private final TelegramBot bot;
+    private final TelegramBotService botService;
+    private final TelegramMessageService messageService;
+    private final TelegramPaymentService paymentService;
+    private final ChatMailboxDispatcher mailboxDispatcher;
+    private final UpdateDeduplicator deduplicator;
+    private final CommandRegistry commandRegistry;
+    private final AdmissionController admissionController;
+    private final ConversationMemory conversationMemory;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${usage.daily.free:10}")
+    private int dailyFreeLimit;
+
+    private String welcomeSuffix; // Приветствие без имени, рендерится один раз
+    private volatile boolean accepting = true;
+    private Counter inlineReplies;
+
+    @PostConstruct
+    public void init() {
+        welcomeSuffix = BotMessages.welcomeSuffix(dailyFreeLimit);
+        inlineReplies = Counter.builder("bot.webhook.inline.replies")
+                .description("Ответы на команды, отданные в теле ответа на webhook")
+                .register(meterRegistry);
+
+        commandRegistry.registerStatic("start", this::handleStartCommand);
+        commandRegistry.registerStatic("help", context -> context.reply(BotMessages.HELP));
+        commandRegistry.registerStatic("payment", context -> context.reply(BotMessages.PAYMENT_OPTIONS));
+        commandRegistry.register("stats", context -> context.reply(botService.getUserStats(context.getChatId())));
+        commandRegistry.register("reset", this::handleResetCommand);
+        commandRegistry.register("buy", context -> handleBuyCommand(context, context.getArgs()));
+        commandRegistry.register("buy_10", context -> handleBuyCommand(context, "10"));
+        commandRegistry.register("buy_50", context -> handleBuyCommand(context, "50"));
+        commandRegistry.register("buy_100", context -> handleBuyCommand(context, "100"));
+        commandRegistry.registerFallback(context -> {
+            context.reply(BotMessages.UNKNOWN_COMMAND);
+            log.warn("⚠️ Пользователь {} отправил неизвестную команду", context.getChatId());
+        });
+    }
+
+    /**
+     * Прекращает прием новых обновлений (при остановке приложения)
+     */
+    public void stopAccepting() {
+        accepting = false;
+    }
+
+    public boolean isAccepting() {
+        return accepting;
+    }
+
+    /**
+     * Обрабатывает одно обновление
+     */
+    public void dispatch(TelegramUpdate update) {
+        dispatch(update, false, null);
+    }
+
+    /**
+     * Обрабатывает одно обновление и сообщает, когда работа по нему закончена
+     *
+     * @param onDone вызывается один раз: сразу, если обновление обработано синхронно,
+     *               или после выполнения (либо отбрасывания) AI задачи в очереди чата
+     */
+    public void dispatch(TelegramUpdate update, Runnable onDone) {
+        dispatch(update, false, onDone);
+    }
+
+    /**
+     * Обрабатывает обновление, пришедшее через webhook
+     * Ответ статической команды (/start, /help, /payment) не отправляется отдельным запросом,
+     * а возвращается для тела ответа на webhook - минус один исходящий запрос и слот лимита
+     *
+     * @return вызов sendMessage для тела ответа или null
+     */
+    public WebhookMethodCall dispatchWebhook(TelegramUpdate update) {
+        WebhookMethodCall inlineReply = dispatch(update, true, null);
+        if (inlineReply != null) {
+            inlineReplies.increment();
+        }
+        return inlineReply;
+    }
+
+    private WebhookMethodCall dispatch(TelegramUpdate update, boolean allowInline, Runnable onDone) {
+        if (update.getUpdateId() != null) {
+            if (!deduplicator.markFirstSeen(update.getUpdateId())) {
+                runQuietly(onDone);
+                return null;
+            }
+            onDone = completion(update.getUpdateId(), onDone);
+        }
+
+        WebhookMethodCall inlineReply = null;
+        boolean handedOff = false; // onDone передан AI задаче
+        TelegramUpdate.TelegramMessage message = update.getMessage();
+        if (message != null && message.getChat() != null) {
+            if (message.getText() != null && message.getText().startsWith("/")) {
+                inlineReply = handleCommand(message, allowInline);
+            } else if (message.getText() != null) {
+                handedOff = handleTextMessage(message, onDone);
+            }
+            if (message.getSuccessfulPayment() != null) {
+                handleSuccessfulPayment(message.getChat().getId(), message.getSuccessfulPayment());
+            }
+        }
+
+        if (update.getPreCheckoutQuery() != null) {
+            handlePreCheckoutQuery(update.getPreCheckoutQuery());
+        }
+
+        if (update.getCallbackQuery() != null) {
+            // Здесь можно обрабатывать нажатия на inline кнопки
+            log.info("Callback query received: {}", update.getCallbackQuery());
+        }
+        if (!handedOff) {
+            runQuietly(onDone);
+        }
+        return inlineReply;
+    }
+
+    private WebhookMethodCall handleCommand(TelegramUpdate.TelegramMessage message, boolean allowInline) {
+        Long chatId = message.getChat().getId();
+        String firstName = firstName(message);
+        log.info("📨 Получено сообщение от {} ({}): {}", firstName, chatId, message.getText());
+
+        CommandContext context = commandRegistry.execute(chatId, firstName, message.getText(), allowInline);
+        String inlineText = context != null ? context.takeInlineReply() : null;
+        return inlineText != null ? WebhookMethodCall.sendMessage(chatId, inlineText) : null;
+    }
+
+    /**
+     * Ставит обычный текст в AI очередь чата
+     *
+     * @return true, если onDone передан задаче в очереди (иначе его вызывает dispatch)
+     */
+    private boolean handleTextMessage(TelegramUpdate.TelegramMessage message, Runnable onDone) {
+        TelegramUpdate.TelegramChat chat = message.getChat();
+        Long chatId = chat.getId();
+        String text = message.getText();
+        String firstName = firstName(message);
+        String lastName = chat.getLastName() != null ? chat.getLastName() : "";
+        String username = chat.getUsername() != null ? chat.getUsername() : "";
+
+        log.info("📨 Получено сообщение от {} ({}): {}", firstName, chatId, text);
+
+        // При перегрузке отказываем сразу, не трогая БД и OpenAI
+        if (!admissionController.tryAdmit(chatId)) {
+            messageService.sendMessage(chatId, BotMessages.AI_OVERLOADED);
+            return false;
+        }
+
+        // Обычный текст - в AI очередь чата, сообщения одного чата обрабатываются по порядку
+        mailboxDispatcher.dispatch(chatId, () -> {
+            try {
+                log.info("🧠 Обработка AI запроса от {}: {}", chatId, text);
+                botService.processMessage(chatId, text, firstName, lastName, username);
+
+            } catch (Exception e) {
+                log.error("❌ Ошибка при обработке сообщения от {}", chatId, e);
+                messageService.sendMessage(chatId, BotMessages.AI_ERROR);
+            }
+        }, onDone);
+        return true;
+    }
+
+    private static String firstName(TelegramUpdate.TelegramMessage message) {
+        TelegramUpdate.TelegramChat chat = message.getChat();
+        return chat.getFirstName() != null ? chat.getFirstName() :
+                message.getFrom() != null ? message.getFrom().getFirstName() : "";
+    }
+
+    /**
+     * Завершение обновления: сначала запоминаем его как выполненное (переживает рестарт),
+     * затем сообщаем источнику (журнал, polling)
+     */
+    private Runnable completion(long updateId, Runnable onDone) {
+        return () -> {
+            deduplicator.markCompleted(updateId);
+            if (onDone != null) {
+                onDone.run();
+            }
+        };
+    }
+
+    private static void runQuietly(Runnable onDone) {
+        if (onDone == null) {
+            return;
+        }
+        try {
+            onDone.run();
+        } catch (RuntimeException e) {
+            log.error("Error in update completion callback", e);
+        }
+    }
+
+    private void handleStartCommand(CommandContext context) {
+        context.reply("🤖 Добро пожаловать, " + context.getFirstName() + welcomeSuffix);
+        log.info("✅ Приветствие отправлено пользователю {}", context.getChatId());
+    }
+
+    private void handleResetCommand(CommandContext context) {
+        Long chatId = context.getChatId();
+        // Через очередь чата: сброс не пересечется с AI запросом, который сейчас обрабатывается
+        mailboxDispatcher.dispatch(chatId, () -> {
+            conversationMemory.reset(chatId);
+            context.reply(BotMessages.CONTEXT_RESET);
+            log.info("🧹 Контекст диалога очищен для пользователя {}", chatId);
+        });
+    }
+
+    private void handleBuyCommand(CommandContext context, String packageType) {
+        Long chatId = context.getChatId();
+        log.info("🛒 Запрос на покупку от пользователя {}: пакет {}", chatId, packageType);
+
+        String packageInfo = getPackageDisplayInfo(packageType);
+        if (packageInfo == null) {
+            log.warn("⚠️ Пользователь {} запросил невалидный пакет: {}", chatId, packageType);
+            context.reply(BotMessages.INVALID_PACKAGE);
+            return;
+        }
+
+        context.reply(BotMessages.INVOICE_PREPARING + packageInfo);
+
+        paymentService.sendInvoice(chatId, packageType).thenAccept(sent -> {
+            if (sent) {
+                log.info("✅ Счет для пакета {} отправлен пользователю {}", packageType, chatId);
+                context.reply(BotMessages.INVOICE_INSTRUCTIONS);
+            } else {
+                log.error("❌ Не удалось отправить счет пользователю {} для пакета {}", chatId, packageType);
+                context.reply(BotMessages.INVOICE_FAILED);
+            }
+        });
+    }
+
+    /**
+     * Обрабатывает предварительные запросы оплаты (pre-checkout)
+     * Telegram ждет ответ не дольше 10 секунд
+     */
+    private void handlePreCheckoutQuery(TelegramUpdate.TelegramPreCheckoutQuery query) {
+        Long userId = query.getFrom() != null ? query.getFrom().getId() : null;
+        log.info("🔄 Pre-checkout запрос от пользователя {}: payload {}", userId, query.getInvoicePayload());
+
+        try {
+            BaseResponse response = bot.execute(new AnswerPreCheckoutQuery(query.getId()));
+            if (response.isOk()) {
+                log.info("✅ Pre-checkout запрос подтвержден для пользователя {}", userId);
+            } else {
+                log.error("❌ Не удалось подтвердить pre-checkout запрос: {}", response.description());
+            }
+        } catch (Exception e) {
+            log.error("❌ Ошибка при обработке pre-checkout запроса", e);
+        }
+    }
+
+    /**
+     * Обрабатывает успешные платежи
+     */
+    private void handleSuccessfulPayment(Long chatId, TelegramUpdate.TelegramSuccessfulPayment payment) {
+        try {
+            int totalAmount = payment.getTotalAmount() != null ? payment.getTotalAmount() : 0;
+            log.info("💰 Успешный платеж от пользователя {}: {} {}, payload {}",
+                    chatId, totalAmount / 100, payment.getCurrency(), payment.getInvoicePayload());
+
+            paymentService.handleSuccessfulPayment(payment.getInvoicePayload(), chatId);
+
+            messageService.sendMessage(chatId, BotMessages.paymentThanks(totalAmount, payment.getCurrency()),
+                    SendPriority.PAYMENT);
+            log.info("✅ Подтверждение платежа отправлено пользователю {}", chatId);
+
+        } catch (Exception e) {
+            log.error("❌ Ошибка при обработке успешного платежа", e);
+        }
+    }
+
+    private static String getPackageDisplayInfo(String packageType) {
+        switch (packageType) {
+            case "10":
+                return BotMessages.PACKAGE_10;
+            case "50":
+                return BotMessages.PACKAGE_50;
+            case "100":
+                return BotMessages.PACKAGE_100;
+            default:
+                return null;
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiConsumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Локальный журнал входящих обновлений Telegram (режим быстрого ответа webhook)
+ *
+ * Контроллер только дописывает сырые байты обновления в memory-mapped сегмент
+ * и сразу отвечает 200. Фоновый поток читает журнал и передает записи обработчику
+ * вместе с подтверждением, которое вызывается, когда работа по обновлению закончена
+ * (AI задача выполнена, а не только поставлена в очередь чата).
+ * Checkpoint - начало самой ранней неподтвержденной записи: если приложение упало,
+ * после рестарта журнал отдает заново все записи от checkpoint. Завершенные среди них
+ * отсеивает UpdateDeduplicator по сохраненным в файле update_id (bot.dedup.file).
+ * Незавершенные обрабатываются еще раз: доставка at-least-once, и AI запрос, который
+ * выполнялся в момент падения, может уйти в OpenAI и списать лимит повторно.
+ * Сегмент удаляется, когда checkpoint ушел за него.
+ *
+ * Формат записи: [длина int][crc32 int][байты обновления].
+ * Длина -1 означает, что сегмент закрыт и продолжение в следующем файле
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UpdateJournal {
+
+    private static final int HEADER_SIZE = 8; // Длина + crc32
+    private static final int ROTATION_MARKER = -1;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final MeterRegistry meterRegistry;
+
+    @Value("${bot.webhook.journal.enabled:false}")
+    private boolean enabled;
+
+    @Value("${bot.webhook.journal.dir:./data/journal}")
+    private String directory;
+
+    @Value("${bot.webhook.journal.segment-size:16777216}")
+    private int segmentSize; // 16 МБ на сегмент
+
+    @Value("${bot.webhook.journal.fsync:false}")
+    private boolean fsync; // Сбрасывать каждую запись на диск (переживает и падение ОС, но медленнее)
+
+    private final ConcurrentSkipListMap<Long, MappedByteBuffer> segments = new ConcurrentSkipListMap<>();
+    private final Object writeLock = new Object();
+
+    // Позиция записи: номер сегмента в старших 32 битах, смещение в младших
+    private final AtomicLong published = new AtomicLong();
+
+    private Path journalDir;
+    private long writeSegment; // Под writeLock
+    private int writePosition; // Под writeLock
+    private MappedByteBuffer checkpoint;
+
+    // Прогресс обработки, под progressLock: начала записей, отданных обработчику и еще не подтвержденных,
+    // и позиция чтения. Checkpoint = самая ранняя неподтвержденная запись или позиция чтения
+    private final Object progressLock = new Object();
+    private final TreeSet<Long> inFlight = new TreeSet<>();
+    private long readPosition;
+    private long savedCheckpoint;
+
+    private volatile boolean running;
+    private Thread consumerThread;
+
+    private Counter appendedCounter;
+    private Counter consumedCounter;
+
+    @PostConstruct
+    public void init() throws IOException {
+        if (!enabled) {
+            return;
+        }
+
+        journalDir = Paths.get(directory);
+        Files.createDirectories(journalDir);
+
+        try (Stream<Path> files = Files.list(journalDir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                String name = file.getFileName().toString();
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    long index = Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                            name.length() - SEGMENT_SUFFIX.length()));
+                    segments.put(index, map(file, segmentSize));
+                }
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.put(0L, map(segmentPath(0), segmentSize));
+        }
+
+        // Восстанавливаем позицию записи: ищем конец валидных данных в последнем сегменте
+        writeSegment = segments.lastKey();
+        MappedByteBuffer last = segments.get(writeSegment);
+        writePosition = scanEnd(last);
+        if (writePosition + 4 <= segmentSize && last.getInt(writePosition) == ROTATION_MARKER) {
+            // Упали сразу после закрытия сегмента - начинаем новый
+            writeSegment++;
+            writePosition = 0;
+            segments.put(writeSegment, map(segmentPath(writeSegment), segmentSize));
+        }
+        published.set(pack(writeSegment, writePosition));
+
+        checkpoint = map(journalDir.resolve("checkpoint"), 16);
+
+        appendedCounter = Counter.builder("bot.webhook.journal.appended")
+                .description("Обновления, записанные в журнал")
+                .register(meterRegistry);
+        consumedCounter = Counter.builder("bot.webhook.journal.consumed")
+                .description("Обновления, обработанные из журнала")
+                .register(meterRegistry);
+
+        log.info("Update journal opened in {}: {} segment(s), write position {}:{}",
+                journalDir, segments.size(), writeSegment, writePosition);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Запускает фоновую обработку журнала
+     * Сначала дочитываются записи, оставшиеся с прошлого запуска
+     */
+    public void start(BiConsumer<byte[], Runnable> handler) {
+        if (!enabled || running) {
+            return;
+        }
+
+        running = true;
+        consumerThread = new Thread(() -> consumeLoop(handler), "update-journal-consumer");
+        consumerThread.setDaemon(true);
+        consumerThread.start();
+    }
+
+    /**
+     * Дописывает обновление в журнал
+     *
+     * @return false если журнал выключен или запись не удалась - тогда обновление нужно обработать сразу
+     */
+    public boolean append(byte[] payload) {
+        if (!enabled) {
+            return false;
+        }
+
+        int recordSize = HEADER_SIZE + payload.length;
+        if (recordSize + 4 > segmentSize) {
+            log.warn("Update of {} bytes does not fit into a journal segment", payload.length);
+            return false;
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        synchronized (writeLock) {
+            MappedByteBuffer buffer = segments.get(writeSegment);
+
+            // В сегменте всегда остается место под маркер закрытия
+            if (writePosition + recordSize + 4 > segmentSize) {
+                try {
+                    MappedByteBuffer next = map(segmentPath(writeSegment + 1), segmentSize);
+                    buffer.putInt(writePosition, ROTATION_MARKER);
+                    writeSegment++;
+                    writePosition = 0;
+                    segments.put(writeSegment, next);
+                    buffer = next;
+                } catch (IOException e) {
+                    log.error("Failed to rotate update journal", e);
+                    return false;
+                }
+            }
+
+            // Длина пишется последней - запись становится видимой только целиком
+            buffer.put(writePosition + HEADER_SIZE, payload);
+            buffer.putInt(writePosition + 4, (int) crc.getValue());
+            buffer.putInt(writePosition, payload.length);
+            if (fsync) {
+                buffer.force(writePosition, recordSize);
+            }
+
+            writePosition += recordSize;
+            published.set(pack(writeSegment, writePosition));
+        }
+
+        appendedCounter.increment();
+        Thread consumer = consumerThread;
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+        return true;
+    }
+
+    /**
+     * Останавливает обработку
+     * Непрочитанные записи остаются в журнале и будут обработаны после рестарта
+     */
+    @PreDestroy
+    public void stop() {
+        running = false;
+        Thread consumer = consumerThread;
+        if (consumer == null) {
+            return;
+        }
+
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        consumerThread = null;
+    }
+
+    private void consumeLoop(BiConsumer<byte[], Runnable> handler) {
+        long segment = checkpoint.getLong(0);
+        int position = checkpoint.getInt(8);
+        if (!segments.containsKey(segment)) {
+            segment = segments.firstKey();
+            position = 0;
+        }
+        synchronized (progressLock) {
+            readPosition = pack(segment, position);
+            savedCheckpoint = readPosition;
+        }
+        log.info("Update journal consumer started at {}:{}", segment, position);
+
+        while (running) {
+            long current = published.get();
+            long publishedSegment = current >>> 32;
+            int publishedPosition = (int) current;
+
+            if (segment == publishedSegment && position >= publishedPosition) {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                continue;
+            }
+
+            MappedByteBuffer buffer = segments.get(segment);
+            byte[] payload = readRecord(buffer, position);
+
+            if (payload == null) {
+                // Конец сегмента (маркер, хвост после падения или пустое место) - переходим к следующему
+                if (segment < publishedSegment) {
+                    segment = segments.higherKey(segment);
+                    position = 0;
+                } else {
+                    log.error("Corrupted journal record at {}:{}, skipping to {}",
+                            segment, position, publishedPosition);
+                    position = publishedPosition;
+                }
+                advanceRead(segment, position);
+                continue;
+            }
+
+            Runnable done = track(segment, position);
+            position += HEADER_SIZE + payload.length;
+            advanceRead(segment, position);
+            try {
+                handler.accept(payload, done);
+            } catch (RuntimeException e) {
+                log.error("Error processing journaled update at {}:{}", segment, position, e);
+                done.run();
+            }
+            consumedCounter.increment();
+        }
+
+        log.info("Update journal consumer stopped at {}:{}", segment, position);
+    }
+
+    /**
+     * Читает запись по смещению или возвращает null, если там нет целой валидной записи
+     */
+    private byte[] readRecord(MappedByteBuffer buffer, int position) {
+        if (position + HEADER_SIZE > segmentSize) {
+            return null;
+        }
+
+        int length = buffer.getInt(position);
+        if (length <= 0 || position + HEADER_SIZE + length > segmentSize) {
+            return null;
+        }
+
+        byte[] payload = new byte[length];
+        buffer.get(position + HEADER_SIZE, payload);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+        return payload;
+    }
+
+    /**
+     * Находит конец последней целой записи в сегменте
+     */
+    private int scanEnd(MappedByteBuffer buffer) {
+        int position = 0;
+        byte[] payload;
+        while ((payload = readRecord(buffer, position)) != null) {
+            position += HEADER_SIZE + payload.length;
+        }
+        return position;
+    }
+
+    /**
+     * Запоминает запись, отданную обработчику
+     *
+     * @return подтверждение обработки; повторный вызов ничего не делает
+     */
+    private Runnable track(long segment, int position) {
+        long start = pack(segment, position);
+        synchronized (progressLock) {
+            inFlight.add(start);
+        }
+        AtomicBoolean confirmed = new AtomicBoolean();
+        return () -> {
+            if (confirmed.compareAndSet(false, true)) {
+                synchronized (progressLock) {
+                    inFlight.remove(start);
+                    updateCheckpoint();
+                }
+            }
+        };
+    }
+
+    private void advanceRead(long segment, int position) {
+        synchronized (progressLock) {
+            readPosition = pack(segment, position);
+            updateCheckpoint();
+        }
+    }
+
+    /**
+     * Сохраняет checkpoint и удаляет сегменты, которые целиком до него; под progressLock
+     */
+    private void updateCheckpoint() {
+        long position = inFlight.isEmpty() ? readPosition : inFlight.first();
+        if (position == savedCheckpoint) {
+            return;
+        }
+        savedCheckpoint = position;
+        checkpoint.putLong(0, position >>> 32);
+        checkpoint.putInt(8, (int) position);
+        if (fsync) {
+            checkpoint.force();
+        }
+
+        long checkpointSegment = position >>> 32;
+        Long oldest;
+        while ((oldest = segments.firstKey()) < checkpointSegment) {
+            releaseSegment(oldest);
+        }
+    }
+
+    /**
+     * Удаляет полностью обработанный сегмент
+     */
+    private void releaseSegment(long segment) {
+        segments.remove(segment);
+        try {
+            Files.deleteIfExists(segmentPath(segment));
+        } catch (IOException e) {
+            log.warn("Failed to delete journal segment {}", segment, e);
+        }
+    }
+
+    private Path segmentPath(long index) {
+        return journalDir.resolve(String.format("%s%016d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX));
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+
+    private static long pack(long segment, int position) {
+        return (segment << 32) | (position & 0xFFFFFFFFL);
+    }
+}
@@ -0,0 +1,280 @@
+package com.github.username.service;
+
+import com.github.username.entity.UsageHistory;
+import com.github.username.repository.UsageRepository;
+import com.github.username.repository.UserRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Отложенная запись usage_history пачками
+ *
+ * Поток запроса только кладет запись в ограниченную очередь; отдельный поток пишет
+ * пачку, как только набралось usage.history.batch-size записей или самая старая ждет
+ * usage.history.flush-ms. Пачка - одна транзакция и один JDBC batch INSERT
+ * (id из pooled sequence, hibernate.jdbc.batch_size в PersistenceConfig).
+ *
+ * Если очередь полна, вызывающий ждет usage.history.offer-timeout-ms, а затем пишет
+ * запись сам: нагрузка на БД притормаживает обработку запросов, но записи не теряются.
+ * Если пачка не записалась, ее записи пишутся по одной: плохая запись не тянет за собой
+ * остальные. Неудачная одиночная запись возвращается в очередь (до MAX_ATTEMPTS попыток).
+ * При остановке очередь дописывается из GracefulShutdownService.
+ *
+ * Для существующей базы последовательность id создается вручную: db/usage_history_seq.sql
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UsageHistoryWriter {
+
+    private static final int MAX_ATTEMPTS = 3;
+    private static final long POLL_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(50); // Как часто проверяем flush
+
+    private final UsageRepository usageRepository;
+    private final UserRepository userRepository;
+    private final PlatformTransactionManager transactionManager;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${usage.history.write-behind.enabled:true}")
+    private boolean enabled;
+
+    @Value("${usage.history.queue-capacity:10000}")
+    private int queueCapacity;
+
+    @Value("${usage.history.batch-size:50}")
+    private int batchSize;
+
+    @Value("${usage.history.flush-ms:1000}")
+    private long flushMillis;
+
+    @Value("${usage.history.offer-timeout-ms:100}")
+    private long offerTimeoutMillis;
+
+    private BlockingQueue<PendingUsage> queue;
+    private final AtomicInteger pending = new AtomicInteger(); // В очереди и в пачке, которая пишется
+    private TransactionTemplate transactionTemplate;
+    private volatile boolean running;
+    private volatile boolean draining; // Идет flush: неполную пачку пишем сразу, не дожидаясь flush-ms
+    private Thread writerThread;
+
+    private Timer flushTimer;
+    private Timer lagTimer;
+    private DistributionSummary batchSizeSummary;
+    private Counter backpressureCounter;
+    private Counter errorCounter;
+    private Counter droppedCounter;
+
+    /**
+     * Запись, ожидающая вставки
+     */
+    private record PendingUsage(Long chatId, String message, String response, int tokensUsed, double cost,
+                                LocalDateTime createdAt, long enqueuedAt, int attempts) {
+
+        PendingUsage retry() {
+            return new PendingUsage(chatId, message, response, tokensUsed, cost, createdAt, enqueuedAt, attempts + 1);
+        }
+    }
+
+    @PostConstruct
+    public void init() {
+        queue = new ArrayBlockingQueue<>(queueCapacity);
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        // Своя транзакция: запись идет и из afterCommit транзакции вызывающего
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+
+        flushTimer = Timer.builder("bot.usage.history.flush")
+                .description("Запись пачки usage_history в БД")
+                .register(meterRegistry);
+        lagTimer = Timer.builder("bot.usage.history.lag")
+                .description("Время от постановки записи в очередь до записи в БД")
+                .register(meterRegistry);
+        batchSizeSummary = DistributionSummary.builder("bot.usage.history.batch.size")
+                .description("Записей usage_history в одной пачке")
+                .register(meterRegistry);
+        backpressureCounter = Counter.builder("bot.usage.history.backpressure")
+                .description("Записи, которые поток запроса записал сам из-за переполнения очереди")
+                .register(meterRegistry);
+        errorCounter = Counter.builder("bot.usage.history.write.errors")
+                .description("Неудачные записи пачек usage_history")
+                .register(meterRegistry);
+        droppedCounter = Counter.builder("bot.usage.history.dropped")
+                .description("Записи usage_history, потерянные после всех попыток")
+                .register(meterRegistry);
+        Gauge.builder("bot.usage.history.queue.depth", pending, AtomicInteger::get)
+                .description("Записи usage_history, ожидающие записи в БД")
+                .register(meterRegistry);
+
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(this::writeLoop, "usage-history-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Ставит запись использования в очередь
+     * Внутри транзакции запись ставится только после ее коммита
+     */
+    public void record(Long chatId, String message, String response, int tokensUsed, double cost) {
+        PendingUsage usage = new PendingUsage(chatId, message, response, tokensUsed, cost,
+                LocalDateTime.now(), System.nanoTime(), 1);
+        if (!enabled) {
+            pending.incrementAndGet();
+            write(List.of(usage));
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    enqueue(usage);
+                }
+            });
+        } else {
+            enqueue(usage);
+        }
+    }
+
+    /**
+     * Дописывает очередь в вызывающем потоке (при остановке приложения)
+     *
+     * @return сколько записей не успели записать к дедлайну
+     */
+    public int flush(long timeoutMillis) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        draining = true;
+        List<PendingUsage> batch = new ArrayList<>(batchSize);
+        while (System.nanoTime() < deadline && queue.drainTo(batch, batchSize) > 0) {
+            write(batch);
+            batch.clear();
+        }
+        // Пачку, которую уже взял поток записи, дожидаемся
+        while (pending.get() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+        }
+        draining = false;
+        return pending.get();
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        running = false;
+        if (writerThread != null) {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        }
+    }
+
+    private void enqueue(PendingUsage usage) {
+        pending.incrementAndGet();
+        try {
+            if (queue.offer(usage, offerTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        backpressureCounter.increment();
+        write(List.of(usage));
+    }
+
+    private void writeLoop() {
+        long flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+        List<PendingUsage> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                PendingUsage first = queue.poll(flushMillis, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                // Добираем пачку до размера, пока самая старая запись ждет меньше flush-ms
+                long deadline = first.enqueuedAt() + flushNanos;
+                while (batch.size() < batchSize) {
+                    if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long waitNanos = deadline - System.nanoTime();
+                    if (waitNanos <= 0 || draining) {
+                        break;
+                    }
+                    PendingUsage next = queue.poll(Math.min(waitNanos, POLL_SLICE_NANOS), TimeUnit.NANOSECONDS);
+                    if (next != null) {
+                        batch.add(next);
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
+
+    private void write(List<PendingUsage> batch) {
+        long startedAt = System.nanoTime();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<UsageHistory> rows = new ArrayList<>(batch.size());
+                for (PendingUsage usage : batch) {
+                    UsageHistory row = new UsageHistory();
+                    row.setUser(userRepository.getReferenceById(usage.chatId()));
+                    row.setMessage(usage.message());
+                    row.setResponse(usage.response());
+                    row.setTokensUsed(usage.tokensUsed());
+                    row.setCost(usage.cost());
+                    row.setCreatedAt(usage.createdAt());
+                    rows.add(row);
+                }
+                usageRepository.saveAll(rows);
+            });
+            long writtenAt = System.nanoTime();
+            flushTimer.record(writtenAt - startedAt, TimeUnit.NANOSECONDS);
+            lagTimer.record(writtenAt - batch.get(0).enqueuedAt(), TimeUnit.NANOSECONDS);
+            batchSizeSummary.record(batch.size());
+            pending.addAndGet(-batch.size());
+        } catch (Exception e) {
+            errorCounter.increment();
+            if (batch.size() > 1) {
+                log.warn("Failed to write a batch of {} usage history rows, retrying one by one", batch.size(), e);
+                for (PendingUsage usage : batch) {
+                    write(List.of(usage));
+                }
+                return;
+            }
+            PendingUsage usage = batch.get(0);
+            log.error("Failed to write usage history row for user {}", usage.chatId(), e);
+            if (!enabled || usage.attempts() >= MAX_ATTEMPTS || !queue.offer(usage.retry())) {
+                droppedCounter.increment();
+                pending.decrementAndGet();
+            }
+        }
+    }
+}
@@ -1,9 +1,6 @@
 package com.github.username.service;
 
-import com.github.username.entity.UsageHistory;
 import com.github.username.entity.User;
-import com.github.username.repository.UsageRepository;
-import com.github.username.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Value;
@@ -22,8 +19,10 @@ import java.util.Optional;
 @RequiredArgsConstructor
 public class UsageService {
 
-    private final UsageRepository usageRepository;
-    private final UserRepository userRepository;
+    private final UsageHistoryWriter usageHistoryWriter;
+    private final TokenCounter tokenCounter;
+    private final QuotaLedgerService quotaLedgerService;
+    private final UserCache userCache;
 
     @Value("${usage.daily.free:10}")
     private int dailyFreeLimit;
@@ -33,62 +32,26 @@ public class UsageService {
 
     /**
      * Регистрирует использование бота пользователем
-     * Проверяет лимиты, списывает баланс при необходимости
+     * Проверка лимита и списание - одна операция QuotaLedgerService, без чтения и записи всей строки
      */
     @Transactional
     public boolean registerUsage(Long chatId, String message, String response) {
-        Optional<User> userOpt = userRepository.findById(chatId);
-        if (userOpt.isEmpty()) {
-            log.error("User not found for chatId: {}", chatId);
-            return false;
-        }
-
-        User user = userOpt.get();
-        user.resetDailyLimitIfNeeded(); // Сбрасываем счетчик если новый день
-
-        // Проверяем можно ли сделать запрос
-        if (!canMakeRequest(user)) {
-            log.warn("User {} exceeded limits", chatId);
-            return false;
-        }
-
-        // Определяем стоимость запроса
-        double cost = 0.0;
-        if (user.getDailyRequestsUsed() >= dailyFreeLimit) {
-            cost = pricePerRequest; // Списание баланса после бесплатных запросов
-        }
-
-        // Проверяем достаточно ли баланса для платных запросов
-        if (cost > 0 && user.getBalance() < cost) {
-            log.warn("Insufficient balance for user {}: ${} < ${}",
-                    chatId, user.getBalance(), cost);
+        double cost = quotaLedgerService.tryConsume(chatId, LocalDateTime.now());
+        if (cost < 0) {
+            log.warn("User {} exceeded limits or not found", chatId);
             return false;
         }
-
-        // Обновляем счетчики пользователя
-        user.setDailyRequestsUsed(user.getDailyRequestsUsed() + 1);
-        user.setTotalRequests(user.getTotalRequests() + 1);
-        user.setLastRequestDate(LocalDateTime.now());
+        quotaLedgerService.recordCompleted(chatId);
 
         if (cost > 0) {
-            user.setBalance(user.getBalance() - cost);
             log.info("Charged user {}: ${} for request", chatId, cost);
         }
 
-        userRepository.save(user);
-
-        // Сохраняем историю использования
-        UsageHistory usage = new UsageHistory();
-        usage.setUser(user);
-        usage.setMessage(truncateMessage(message, 4000));
-        usage.setResponse(truncateMessage(response, 4000));
-        usage.setTokensUsed(calculateTokens(response));
-        usage.setCost(cost);
-
-        usageRepository.save(usage);
+        // Сохраняем историю использования (в фоне, пачками)
+        usageHistoryWriter.record(chatId, truncateMessage(message, 4000), truncateMessage(response, 4000),
+                tokenCounter.count(message) + tokenCounter.count(response), cost);
 
-        log.debug("Registered usage for user {}: daily={}/{}",
-                chatId, user.getDailyRequestsUsed(), dailyFreeLimit);
+        log.debug("Registered usage for user {}", chatId);
 
         return true;
     }
@@ -112,7 +75,7 @@ public class UsageService {
      * Возвращает информацию о лимитах пользователя
      */
     public String getUsageInfo(Long chatId) {
-        Optional<User> userOpt = userRepository.findById(chatId);
+        Optional<User> userOpt = userCache.find(chatId).map(quotaLedgerService::applyPending);
         if (userOpt.isEmpty()) {
             return "Пользователь не найден";
         }
@@ -140,15 +103,6 @@ public class UsageService {
         return info.toString();
     }
 
-    /**
-     * Вспомогательный метод для расчета примерного количества токенов
-     */
-    private int calculateTokens(String text) {
-        // Простой расчет: примерно 1 токен = 4 символа
-        // В реальном проекте лучше использовать токенизатор OpenAI
-        return text.length() / 4;
-    }
-
     /**
      * Вспомогательный метод для обрезки длинных сообщений
      */
@@ -0,0 +1,173 @@
+package com.github.username.service;
+
+import com.github.username.entity.User;
+import com.github.username.repository.UserRepository;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш пользователей для чтения: /stats, /limits, обработка сообщений
+ * Хранит копии сущностей (не управляемые Hibernate) и отдает каждый раз новую копию,
+ * поэтому вызывающий может менять полученного пользователя, не портя кэш.
+ *
+ * Каждое изменение строки users вызывает invalidate. Счетчики, которые еще лежат в QuotaLedger,
+ * в кэше устаревают без invalidate - их подставляет QuotaLedgerService.applyPending.
+ * Активные за user.cache.preload-hours пользователи загружаются при старте
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class UserCache {
+
+    private final UserRepository userRepository;
+    private final MeterRegistry meterRegistry;
+
+    @Value("${user.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${user.cache.max-size:10000}")
+    private int maxSize;
+
+    @Value("${user.cache.ttl-minutes:10}")
+    private long ttlMinutes;
+
+    @Value("${user.cache.preload-hours:24}")
+    private long preloadHours;
+
+    private TtlLruCache<Long, User> cache;
+
+    // Растет при каждом invalidate: чтение из БД, начатое до изменения, не кладет в кэш старую копию
+    private final AtomicLong invalidations = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        cache = new TtlLruCache<>(maxSize, ttlMinutes, TimeUnit.MINUTES);
+
+        FunctionCounter.builder("bot.user.cache.requests", cache, TtlLruCache::hitCount)
+                .description("Запросы к кэшу пользователей")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        FunctionCounter.builder("bot.user.cache.requests", cache, TtlLruCache::missCount)
+                .description("Запросы к кэшу пользователей")
+                .tag("result", "miss")
+                .register(meterRegistry);
+        Gauge.builder("bot.user.cache.hit.ratio", cache, UserCache::hitRatio)
+                .description("Доля запросов пользователя, обслуженных из кэша")
+                .register(meterRegistry);
+        FunctionCounter.builder("bot.user.cache.evictions", cache,
+                        c -> c.sizeEvictionCount() + c.expirationCount())
+                .description("Пользователи, вытесненные из кэша по размеру или времени жизни")
+                .register(meterRegistry);
+        FunctionCounter.builder("bot.user.cache.invalidations", invalidations, AtomicLong::get)
+                .description("Сбросы записей кэша после изменения пользователя")
+                .register(meterRegistry);
+        Gauge.builder("bot.user.cache.size", cache, TtlLruCache::size)
+                .description("Пользователей в кэше")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Загружает недавно активных пользователей, чтобы первые запросы после старта не шли в БД
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void preload() {
+        if (!enabled || preloadHours <= 0) {
+            return;
+        }
+        try {
+            List<User> active = userRepository.findByLastRequestDateAfterOrderByLastRequestDateDesc(
+                    LocalDateTime.now().minusHours(preloadHours), PageRequest.of(0, maxSize));
+            // Самые активные кладем последними - при переполнении вытесняются менее активные
+            for (int i = active.size() - 1; i >= 0; i--) {
+                cache.put(active.get(i).getChatId(), copy(active.get(i)));
+            }
+            log.info("User cache preloaded with {} active users", active.size());
+        } catch (Exception e) {
+            log.warn("User cache preload failed, cache will fill on demand", e);
+        }
+    }
+
+    /**
+     * Копия пользователя из кэша или из БД
+     */
+    public Optional<User> find(Long chatId) {
+        if (!enabled) {
+            return userRepository.findById(chatId);
+        }
+        User cached = cache.get(chatId);
+        if (cached != null) {
+            return Optional.of(copy(cached));
+        }
+
+        long version = invalidations.get();
+        Optional<User> loaded = userRepository.findById(chatId);
+        loaded.ifPresent(user -> {
+            User snapshot = copy(user);
+            synchronized (this) {
+                if (invalidations.get() == version) {
+                    cache.put(chatId, snapshot);
+                }
+            }
+        });
+        return loaded.map(UserCache::copy);
+    }
+
+    /**
+     * Сбрасывает запись после изменения пользователя в БД
+     * Внутри транзакции запись сбрасывается еще раз после коммита: до него другие потоки
+     * читают старую строку и могут снова положить ее в кэш
+     */
+    public void invalidate(Long chatId) {
+        if (!enabled) {
+            return;
+        }
+        evict(chatId);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    evict(chatId);
+                }
+            });
+        }
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private synchronized void evict(Long chatId) {
+        invalidations.incrementAndGet();
+        cache.invalidate(chatId);
+    }
+
+    private static double hitRatio(TtlLruCache<Long, User> cache) {
+        long hits = cache.hitCount();
+        long total = hits + cache.missCount();
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    private static User copy(User source) {
+        User copy = new User();
+        BeanUtils.copyProperties(source, copy);
+        return copy;
+    }
+}
@@ -20,6 +20,8 @@ import java.util.Optional;
 public class UserService {
 
     private final UserRepository userRepository;
+    private final QuotaLedgerService quotaLedgerService;
+    private final UserCache userCache;
 
     /**
      * Создает нового пользователя
@@ -37,6 +39,7 @@ public class UserService {
         user.setBalance(0.0);
 
         User savedUser = userRepository.save(user);
+        userCache.invalidate(chatId);
         log.info("Created new user: {} (chatId: {})", firstName, chatId);
 
         return savedUser;
@@ -47,20 +50,16 @@ public class UserService {
      */
     @Transactional
     public User findOrCreateUser(Long chatId, String firstName, String lastName, String username) {
-        return userRepository.findById(chatId)
+        return userCache.find(chatId)
                 .orElseGet(() -> createUser(chatId, firstName, lastName, username));
     }
 
     /**
      * Обновляет баланс пользователя
      */
-    @Transactional
     public void updateUserBalance(Long chatId, double amount) {
-        Optional<User> userOpt = userRepository.findById(chatId);
-        if (userOpt.isPresent()) {
-            User user = userOpt.get();
-            user.setBalance(user.getBalance() + amount);
-            userRepository.save(user);
+        // Через хранилище счетчиков: пополнение не затирает параллельное списание запроса
+        if (quotaLedgerService.credit(chatId, amount)) {
             log.info("Updated balance for user {}: +${}", chatId, amount);
         }
     }
@@ -69,7 +68,7 @@ public class UserService {
      * Получает статистику пользователя
      */
     public String getUserStats(Long chatId) {
-        Optional<User> userOpt = userRepository.findById(chatId);
+        Optional<User> userOpt = userCache.find(chatId).map(quotaLedgerService::applyPending);
         if (userOpt.isEmpty()) {
             return "Пользователь не найден";
         }
@@ -90,7 +89,7 @@ public class UserService {
      * Проверяет, может ли пользователь сделать запрос
      */
     public boolean canUserMakeRequest(Long chatId) {
-        Optional<User> userOpt = userRepository.findById(chatId);
+        Optional<User> userOpt = userCache.find(chatId).map(quotaLedgerService::applyPending);
         if (userOpt.isEmpty()) {
             return false;
         }
@@ -0,0 +1,15 @@
+-- Последовательность id для usage_history (UsageHistory, pooled, allocationSize = 50)
+--
+-- Новая база: Hibernate создаст последовательность сам, этот файл не нужен.
+-- Существующая база, где id выдавал IDENTITY: выполнить ОДИН РАЗ до запуска новой версии.
+-- Hibernate берет значение последовательности как верхнюю границу блока из 50 id,
+-- поэтому она должна начинаться не ниже max(id) + 50, иначе новые id совпадут со старыми.
+-- INCREMENT BY должен совпадать с allocationSize.
+
+-- PostgreSQL
+CREATE SEQUENCE IF NOT EXISTS usage_history_seq INCREMENT BY 50;
+SELECT setval('usage_history_seq', (SELECT COALESCE(MAX(id), 0) + 50 FROM usage_history), false);
+
+-- H2 (START WITH принимает только число: подставить результат запроса)
+-- SELECT COALESCE(MAX(id), 0) + 50 FROM usage_history;
+-- CREATE SEQUENCE IF NOT EXISTS usage_history_seq START WITH <результат> INCREMENT BY 50;
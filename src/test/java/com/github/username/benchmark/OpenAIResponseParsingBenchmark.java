@@ -0,0 +1,93 @@
+package com.github.username.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.username.dto.ChatCompletionResponse;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение разбора ответа OpenAI /chat/completions:
+ * старый способ (Map + приведения choices[0].message.content) против
+ * типизированного ObjectReader для ChatCompletionResponse.
+ *
+ * Запуск: main() из IDE, или с профилировщиком аллокаций:
+ * -prof gc в аргументах OptionsBuilder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class OpenAIResponseParsingBenchmark {
+
+    // Типичный ответ на ~150 токенов с полями, которые боту не нужны
+    private static final String RESPONSE_JSON = "{"
+            + "\"id\":\"chatcmpl-9xYzAbCdEfGhIjKlMnOpQrStUvWx\","
+            + "\"object\":\"chat.completion\","
+            + "\"created\":1718000000,"
+            + "\"model\":\"gpt-3.5-turbo-0125\","
+            + "\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\""
+            + "Конечно! Вот краткое объяснение. Рекурсия - это приём, при котором функция вызывает саму себя "
+            + "для решения меньшей версии той же задачи. У каждой рекурсивной функции должно быть базовое условие, "
+            + "при котором вызовы прекращаются, иначе стек переполнится.\\n\\nПример на Java:\\n\\n"
+            + "int factorial(int n) {\\n    return n <= 1 ? 1 : n * factorial(n - 1);\\n}\\n\\n"
+            + "Здесь базовое условие - n <= 1. Если хотите, могу показать, как переписать это итеративно.\","
+            + "\"refusal\":null},\"logprobs\":null,\"finish_reason\":\"stop\"}],"
+            + "\"usage\":{\"prompt_tokens\":27,\"completion_tokens\":148,\"total_tokens\":175,"
+            + "\"prompt_tokens_details\":{\"cached_tokens\":0,\"audio_tokens\":0},"
+            + "\"completion_tokens_details\":{\"reasoning_tokens\":0,\"audio_tokens\":0,"
+            + "\"accepted_prediction_tokens\":0,\"rejected_prediction_tokens\":0}},"
+            + "\"system_fingerprint\":\"fp_0ba0d124f1\""
+            + "}";
+
+    private byte[] body;
+    private ObjectMapper objectMapper;
+    private ObjectReader responseReader;
+
+    @Setup
+    public void setUp() {
+        body = RESPONSE_JSON.getBytes(StandardCharsets.UTF_8);
+        objectMapper = new ObjectMapper();
+        responseReader = objectMapper.readerFor(ChatCompletionResponse.class);
+    }
+
+    /**
+     * Как OpenAIService разбирал ответ раньше (usage не читался вовсе)
+     */
+    @Benchmark
+    @SuppressWarnings("unchecked")
+    public void rawMap(Blackhole blackhole) throws IOException {
+        Map<String, Object> response = objectMapper.readValue(body, Map.class);
+        List<Map<String, Object>> choices = (List<Map<String, Object>>) response.get("choices");
+        Map<String, Object> message = (Map<String, Object>) choices.get(0).get("message");
+        blackhole.consume((String) message.get("content"));
+    }
+
+    /**
+     * Типизированная привязка с пропуском неизвестных полей на уровне токенов, вместе с usage
+     */
+    @Benchmark
+    public void typedReader(Blackhole blackhole) throws IOException {
+        ChatCompletionResponse response = responseReader.readValue(body);
+        blackhole.consume(response.firstContent());
+        blackhole.consume(response.usage().promptTokens());
+        blackhole.consume(response.usage().completionTokens());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(OpenAIResponseParsingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,102 @@
+package com.github.username.benchmark;
+
+import com.github.username.service.QuotaLedger;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QuotaLedger против ConcurrentHashMap<Long, long[]> на миллионе пользователей:
+ * чтение без блокировок, списание запроса под блокировкой полосы.
+ * Память на миллион пользователей печатается при подготовке (занятая куча до и после заполнения).
+ *
+ * Запуск: main() из IDE; для нескольких потоков - -t 4 в аргументах JMH
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+@State(Scope.Benchmark)
+public class QuotaLedgerBenchmark {
+
+    private static final int USERS = 1_000_000;
+    private static final int TODAY = 20000;
+    private static final long FIRST_CHAT_ID = 100_000_000L;
+
+    private QuotaLedger ledger;
+    private ConcurrentHashMap<Long, long[]> boxed;
+
+    /**
+     * Свой генератор chatId на поток
+     */
+    @State(Scope.Thread)
+    public static class Keys {
+        private long seed = System.nanoTime() | 1;
+
+        long next() {
+            seed ^= seed << 13;
+            seed ^= seed >>> 7;
+            seed ^= seed << 17;
+            return FIRST_CHAT_ID + Math.floorMod(seed, USERS);
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        long before = usedHeap();
+        ledger = new QuotaLedger(USERS);
+        for (long chatId = FIRST_CHAT_ID; chatId < FIRST_CHAT_ID + USERS; chatId++) {
+            ledger.putIfAbsent(chatId, QuotaLedger.pack(TODAY, 0, 1000));
+        }
+        long ledgerBytes = usedHeap() - before;
+
+        before = usedHeap();
+        boxed = new ConcurrentHashMap<>(USERS * 2);
+        for (long chatId = FIRST_CHAT_ID; chatId < FIRST_CHAT_ID + USERS; chatId++) {
+            boxed.put(chatId, new long[]{TODAY, 0, 1000});
+        }
+        long boxedBytes = usedHeap() - before;
+
+        System.out.printf("%nMemory per 1M users: QuotaLedger %.1f MB (arrays %.1f MB), ConcurrentHashMap %.1f MB%n",
+                ledgerBytes / 1e6, ledger.memoryBytes() / 1e6, boxedBytes / 1e6);
+    }
+
+    @Benchmark
+    public long ledgerGet(Keys keys) {
+        return ledger.get(keys.next());
+    }
+
+    @Benchmark
+    public long ledgerTryConsume(Keys keys) {
+        return ledger.tryConsume(keys.next(), TODAY, Integer.MAX_VALUE, 10);
+    }
+
+    @Benchmark
+    public long[] boxedGet(Keys keys) {
+        return boxed.get(keys.next());
+    }
+
+    @Benchmark
+    public long[] boxedCompute(Keys keys) {
+        return boxed.computeIfPresent(keys.next(), (chatId, state) -> new long[]{state[0], state[1] + 1, state[2]});
+    }
+
+    private static long usedHeap() {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(QuotaLedgerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
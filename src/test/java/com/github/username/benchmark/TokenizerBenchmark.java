@@ -0,0 +1,79 @@
+package com.github.username.benchmark;
+
+import com.github.username.service.BpeTokenizer;
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Стоимость подсчета токенов одного сообщения:
+ * BpeTokenizer против эталонного jtokkit и старой оценки length / 4
+ *
+ * Запуск: main() из IDE, или с профилировщиком аллокаций:
+ * -prof gc в аргументах OptionsBuilder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenizerBenchmark {
+
+    // Типичный вопрос пользователя, ~400 символов
+    private static final String RUSSIAN = "Привет! Объясни, пожалуйста, чем отличается рекурсия от итерации "
+            + "и когда что лучше использовать. Я пишу на Java, и у меня функция обхода дерева каталогов "
+            + "падает со StackOverflowError на глубоких папках. Можно ли переписать ее без рекурсии, "
+            + "чтобы не держать весь путь в стеке? Покажи небольшой пример с очередью или стеком, "
+            + "и оцени, насколько это будет медленнее на 100 000 файлов.";
+
+    private static final String ENGLISH = "Hi! Could you please explain the difference between recursion "
+            + "and iteration, and when each one is the better choice? I'm writing Java, and my directory "
+            + "tree walker crashes with StackOverflowError on deeply nested folders. Can it be rewritten "
+            + "without recursion so the whole path isn't kept on the call stack? Please show a short example "
+            + "using a queue or a stack, and estimate how much slower it would be for 100,000 files.";
+
+    @Param({"ru", "en"})
+    private String language;
+
+    private String text;
+    private BpeTokenizer tokenizer;
+    private Encoding reference;
+
+    @Setup
+    public void setUp() {
+        text = language.equals("ru") ? RUSSIAN : ENGLISH;
+        tokenizer = BpeTokenizer.cl100k();
+        reference = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    }
+
+    /**
+     * Как токены считались раньше - для масштаба, результат неверен для кириллицы
+     */
+    @Benchmark
+    public int lengthEstimate() {
+        return text.length() / 4;
+    }
+
+    @Benchmark
+    public int bpeCount() {
+        return tokenizer.count(text);
+    }
+
+    @Benchmark
+    public int jtokkitCount() {
+        return reference.countTokens(text);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(TokenizerBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,108 @@
+package com.github.username.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.github.username.dto.TelegramUpdate;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Сравнение разбора webhook обновления:
+ * старый способ (дерево JsonNode + get("message").get("chat")) против
+ * типизированного ObjectReader для TelegramUpdate.
+ *
+ * Запуск: main() из IDE, или с профилировщиком аллокаций:
+ * -prof gc в аргументах OptionsBuilder
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WebhookUpdateParsingBenchmark {
+
+    // Обычное текстовое сообщение с "лишними" полями: ответ на фото, entities, превью ссылки
+    private static final String UPDATE_JSON = "{"
+            + "\"update_id\":815224301,"
+            + "\"message\":{"
+            + "\"message_id\":4512,"
+            + "\"from\":{\"id\":123456789,\"is_bot\":false,\"first_name\":\"Иван\",\"last_name\":\"Петров\","
+            + "\"username\":\"ivan_p\",\"language_code\":\"ru\",\"is_premium\":true},"
+            + "\"chat\":{\"id\":123456789,\"first_name\":\"Иван\",\"last_name\":\"Петров\","
+            + "\"username\":\"ivan_p\",\"type\":\"private\"},"
+            + "\"date\":1718000000,"
+            + "\"reply_to_message\":{\"message_id\":4500,\"from\":{\"id\":987654321,\"is_bot\":true,"
+            + "\"first_name\":\"GPT Bot\",\"username\":\"gpt_bot\"},\"chat\":{\"id\":123456789,\"type\":\"private\"},"
+            + "\"date\":1717999000,\"photo\":["
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBY2ZmZmZmZmZmZmZmZmZmZmZmZmZmAAJ\",\"file_unique_id\":\"AQADZmZm\",\"file_size\":1234,\"width\":90,\"height\":60},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBY2ZmZmZmZmZmZmZmZmZmZmZmZmZmAAK\",\"file_unique_id\":\"AQADZmZn\",\"file_size\":15234,\"width\":320,\"height\":213},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBY2ZmZmZmZmZmZmZmZmZmZmZmZmZmAAL\",\"file_unique_id\":\"AQADZmZo\",\"file_size\":65234,\"width\":800,\"height\":533},"
+            + "{\"file_id\":\"AgACAgIAAxkBAAIBY2ZmZmZmZmZmZmZmZmZmZmZmZmZmAAM\",\"file_unique_id\":\"AQADZmZp\",\"file_size\":165234,\"width\":1280,\"height\":853}"
+            + "],\"caption\":\"Вот ваша картинка, описание сгенерировано автоматически\"},"
+            + "\"text\":\"Расскажи подробнее про https://example.com/article и объясни #вопрос\","
+            + "\"entities\":[{\"offset\":23,\"length\":27,\"type\":\"url\"},{\"offset\":62,\"length\":7,\"type\":\"hashtag\"}],"
+            + "\"link_preview_options\":{\"is_disabled\":false,\"url\":\"https://example.com/article\",\"prefer_small_media\":true}"
+            + "}}";
+
+    private byte[] body;
+    private ObjectMapper objectMapper;
+    private ObjectReader updateReader;
+
+    @Setup
+    public void setUp() {
+        body = UPDATE_JSON.getBytes(StandardCharsets.UTF_8);
+        objectMapper = new ObjectMapper();
+        updateReader = objectMapper.readerFor(TelegramUpdate.class);
+    }
+
+    /**
+     * Как контроллер разбирал обновление раньше
+     */
+    @Benchmark
+    public void jsonNodeTree(Blackhole blackhole) throws IOException {
+        JsonNode update = objectMapper.readTree(body);
+        blackhole.consume(update.get("update_id").asLong());
+        if (update.has("message") && update.get("message").has("text")) {
+            JsonNode message = update.get("message");
+            blackhole.consume(message.get("chat").get("id").asLong());
+            blackhole.consume(message.get("text").asText());
+            blackhole.consume(message.get("chat").get("first_name").asText());
+            blackhole.consume(message.get("chat").has("last_name") ?
+                    message.get("chat").get("last_name").asText() : "");
+            blackhole.consume(message.get("chat").has("username") ?
+                    message.get("chat").get("username").asText() : "");
+        }
+    }
+
+    /**
+     * Типизированная привязка с пропуском неизвестных полей на уровне токенов
+     */
+    @Benchmark
+    public void typedReader(Blackhole blackhole) throws IOException {
+        TelegramUpdate update = updateReader.readValue(body);
+        blackhole.consume(update.getUpdateId());
+        TelegramUpdate.TelegramMessage message = update.getMessage();
+        if (message != null && message.getText() != null) {
+            blackhole.consume(message.getChat().getId());
+            blackhole.consume(message.getText());
+            blackhole.consume(message.getChat().getFirstName());
+            blackhole.consume(message.getChat().getLastName());
+            blackhole.consume(message.getChat().getUsername());
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(WebhookUpdateParsingBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+}
@@ -0,0 +1,76 @@
+package com.github.username.service;
+
+import com.knuddels.jtokkit.Encodings;
+import com.knuddels.jtokkit.api.Encoding;
+import com.knuddels.jtokkit.api.EncodingType;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сверяет BpeTokenizer с эталонной реализацией cl100k_base и проверяет обрезку по токенам
+ */
+class BpeTokenizerTest {
+
+    private static final List<String> SAMPLES = List.of(
+            "hello world",
+            "Привет! Как дела? Расскажи, пожалуйста, про квантовую механику простыми словами.",
+            "Don't we'll they're I'M    spaced\n\n\ttabs  \r\n",
+            "Числа 1234567 и 3.14159, код: for (int i = 0; i < n; i++) { sum += a[i]; }",
+            "Эмодзи 🤖🎉 и иероглифы 你好世界, ünïcödé, ‘кавычки’ — тире",
+            "    отступ и хвостовые пробелы   ",
+            ""
+    );
+
+    private static BpeTokenizer tokenizer;
+    private static Encoding reference;
+
+    @BeforeAll
+    static void setUp() {
+        tokenizer = BpeTokenizer.cl100k();
+        reference = Encodings.newDefaultEncodingRegistry().getEncoding(EncodingType.CL100K_BASE);
+    }
+
+    @Test
+    void tokensMatchReferenceEncoding() {
+        assertArrayEquals(new int[]{15339, 1917}, tokenizer.encode("hello world"));
+        for (String sample : SAMPLES) {
+            assertArrayEquals(reference.encode(sample).toArray(), tokenizer.encode(sample), sample);
+            assertEquals(reference.countTokens(sample), tokenizer.count(sample), sample);
+        }
+    }
+
+    @Test
+    void randomMixedTextMatchesReferenceEncoding() {
+        String alphabet = "aZ'sSdLlVvRe09٣Ⅻ½ жЁ世界🤖.,!?-_\"(){}\t\r\n\u00A0\u2003\u200B";
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(24);
+            for (int j = 0; j < length; j++) {
+                text.appendCodePoint(alphabet.codePointAt(alphabet.offsetByCodePoints(0,
+                        random.nextInt(alphabet.codePointCount(0, alphabet.length())))));
+            }
+            String sample = text.toString();
+            assertArrayEquals(reference.encode(sample).toArray(), tokenizer.encode(sample), sample);
+        }
+    }
+
+    @Test
+    void truncateKeepsPrefixWithinBudget() {
+        String text = SAMPLES.get(1);
+        String trimmed = tokenizer.truncate(text, 5);
+
+        assertTrue(text.startsWith(trimmed));
+        assertTrue(tokenizer.count(trimmed) <= 5);
+        assertTrue(trimmed.length() > 0);
+        assertSame(text, tokenizer.truncate(text, 1000));
+    }
+}
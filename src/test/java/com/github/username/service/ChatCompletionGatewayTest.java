@@ -0,0 +1,86 @@
+package com.github.username.service;
+
+import com.github.username.dto.ChatCompletionResponse;
+import com.github.username.dto.ChatCompletionResult;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет, что ответ, не ходивший в OpenAI (из кэша или объединенный с чужим запросом),
+ * приходит без токенов OpenAI
+ */
+class ChatCompletionGatewayTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private OpenAIService openAIService;
+    private ChatCompletionGateway gateway;
+
+    @BeforeEach
+    void setUp() {
+        openAIService = mock(OpenAIService.class);
+        gateway = new ChatCompletionGateway(openAIService, meterRegistry);
+        ReflectionTestUtils.setField(gateway, "cacheEnabled", true);
+        ReflectionTestUtils.setField(gateway, "cacheMaxSize", 100);
+        ReflectionTestUtils.setField(gateway, "cacheTtlMinutes", 60L);
+        ReflectionTestUtils.setField(gateway, "maxPromptLength", 200);
+        gateway.init();
+    }
+
+    @Test
+    void cacheHitHasNoUsage() {
+        when(openAIService.getChatResponse(anyString()))
+                .thenReturn(ChatCompletionResult.success("Привет!", new ChatCompletionResponse.Usage(9, 3, 12)));
+
+        ChatCompletionResult first = gateway.complete("Привет", null);
+        ChatCompletionResult cached = gateway.complete("привет!", null);
+
+        assertEquals(12, first.totalTokens());
+        assertTrue(cached.ok());
+        assertEquals("Привет!", cached.text());
+        assertFalse(cached.hasUsage()); // Пишется локальный подсчет, а не токены первого запроса
+        verify(openAIService, times(1)).getChatResponse(anyString());
+    }
+
+    @Test
+    void coalescedFollowerHasNoUsage() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        when(openAIService.getChatResponse(anyString())).thenAnswer(invocation -> {
+            release.await(5, TimeUnit.SECONDS);
+            return ChatCompletionResult.success("Ответ", new ChatCompletionResponse.Usage(9, 3, 12));
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<ChatCompletionResult> leader = executor.submit(() -> gateway.complete("что ты умеешь", null));
+        verify(openAIService, timeout(5000)).getChatResponse(anyString());
+        Future<ChatCompletionResult> follower = executor.submit(() -> gateway.complete("Что ты умеешь?", null));
+        while (meterRegistry.counter("ai.singleflight.coalesced").count() == 0) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+
+        assertEquals(12, leader.get(5, TimeUnit.SECONDS).totalTokens());
+        ChatCompletionResult joined = follower.get(5, TimeUnit.SECONDS);
+        executor.shutdown();
+        assertEquals("Ответ", joined.text());
+        assertFalse(joined.hasUsage()); // Один запрос к OpenAI записывается один раз
+        verify(openAIService, times(1)).getChatResponse(anyString());
+    }
+}
@@ -0,0 +1,59 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет разбор команд: @username бота, аргументы, неизвестные команды
+ */
+class CommandRegistryTest {
+
+    private CommandRegistry registry;
+    private final List<String> calls = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() {
+        registry = new CommandRegistry(new SimpleMeterRegistry(), null);
+        ReflectionTestUtils.setField(registry, "botUsername", "GptHelperBot");
+        registry.register("buy", context -> calls.add("buy:" + context.getArgs()));
+        registry.register("start", context -> calls.add("start:" + context.getFirstName()));
+        registry.registerStatic("help", context -> context.reply("справка"));
+        registry.registerFallback(context -> calls.add("unknown:" + context.getCommand()));
+    }
+
+    @Test
+    void parsesArgumentsAndMention() {
+        assertTrue(registry.execute(1L, "Иван", "/buy@gpthelperbot   50 "));
+        assertTrue(registry.execute(1L, "Иван", "/START"));
+        assertEquals(List.of("buy:50", "start:Иван"), calls);
+    }
+
+    @Test
+    void ignoresCommandsForOtherBots() {
+        assertFalse(registry.execute(1L, "Иван", "/start@OtherBot"));
+        assertTrue(calls.isEmpty());
+    }
+
+    @Test
+    void unknownCommandGoesToFallback() {
+        registry.execute(1L, "Иван", "/foo bar");
+        assertEquals(List.of("unknown:foo"), calls);
+    }
+
+    @Test
+    void staticCommandReplyIsReturnedInline() {
+        CommandContext context = registry.execute(1L, "Иван", "/help", true);
+        assertEquals("справка", context.takeInlineReply());
+        assertNull(context.takeInlineReply());
+    }
+}
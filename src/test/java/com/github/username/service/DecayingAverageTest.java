@@ -0,0 +1,39 @@
+package com.github.username.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет затухание среднего без замеров и смешивание нового замера с уже затухшим значением
+ */
+class DecayingAverageTest {
+
+    @Test
+    void valueHalvesEveryHalfLife() {
+        AtomicLong clock = new AtomicLong();
+        DecayingAverage average = new DecayingAverage(0.2, 10, TimeUnit.SECONDS, clock::get);
+        average.record(40_000);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+
+        assertEquals(20_000, average.get(), 1e-6);
+    }
+
+    @Test
+    void sampleAfterIdleIsBlendedWithDecayedValue() {
+        AtomicLong clock = new AtomicLong();
+        DecayingAverage average = new DecayingAverage(0.2, 10, TimeUnit.SECONDS, clock::get);
+        average.record(40_000);
+
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(60)); // 6 периодов: 40 000 -> 625
+        average.record(500);
+
+        assertEquals(625 + 0.2 * (500 - 625), average.get(), 1e-6);
+        assertTrue(average.get() < 30_000); // Один быстрый запрос после простоя не включает сброс нагрузки
+    }
+}
@@ -0,0 +1,97 @@
+package com.github.username.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.username.dto.ChatCompletionResult;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверяет обмен с OpenAI на локальной заглушке вместо api.openai.com
+ */
+class OpenAIServiceTest {
+
+    private HttpServer server;
+    private OpenAIHttpClient httpClient;
+    private OpenAIService openAIService;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        httpClient = new OpenAIHttpClient(meterRegistry);
+        ReflectionTestUtils.setField(httpClient, "openaiApiKey", "sk-test");
+        ReflectionTestUtils.setField(httpClient, "baseUrl", "http://127.0.0.1:" + server.getAddress().getPort() + "/v1");
+        ReflectionTestUtils.setField(httpClient, "connectTimeoutMillis", 1000L);
+        ReflectionTestUtils.setField(httpClient, "readTimeoutMillis", 5000L);
+        ReflectionTestUtils.setField(httpClient, "deadlineMillis", 5000L);
+        httpClient.init();
+
+        openAIService = new OpenAIService(httpClient, new ObjectMapper(), meterRegistry);
+        ReflectionTestUtils.setField(openAIService, "openaiApiKey", "sk-test");
+        ReflectionTestUtils.setField(openAIService, "model", "gpt-3.5-turbo");
+        openAIService.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        httpClient.shutdown();
+        server.stop(0);
+    }
+
+    @Test
+    void readsCompletion() {
+        respond("application/json",
+                "{\"id\":\"chatcmpl-1\",\"choices\":[{\"index\":0,\"message\":{\"role\":\"assistant\",\"content\":\"Привет!\"},"
+                        + "\"finish_reason\":\"stop\"}],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":3,\"total_tokens\":12}}");
+
+        ChatCompletionResult result = openAIService.getChatResponse("привет");
+
+        assertEquals("Привет!", result.text());
+        assertEquals(9, result.promptTokens());
+        assertEquals(3, result.completionTokens());
+    }
+
+    @Test
+    void readsStreamedCompletion() {
+        respond("text/event-stream",
+                "data: {\"choices\":[{\"delta\":{\"role\":\"assistant\"}}]}\n\n"
+                        + "data: {\"choices\":[{\"delta\":{\"content\":\"При\"}}]}\n\n"
+                        + "data: {\"choices\":[{\"delta\":{\"content\":\"вет!\"}}]}\n\n"
+                        + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":9,\"completion_tokens\":2,\"total_tokens\":11}}\n\n"
+                        + "data: [DONE]\n\n");
+
+        List<String> partials = new ArrayList<>();
+        ChatCompletionResult result = openAIService.streamChatResponse("привет", text -> partials.add(text.toString()));
+
+        assertEquals("Привет!", result.text());
+        assertEquals(11, result.totalTokens());
+        assertEquals(List.of("При", "Привет!"), partials);
+    }
+
+    private void respond(String contentType, String body) {
+        server.createContext("/v1/chat/completions", exchange -> {
+            byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", contentType);
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        });
+    }
+}
@@ -0,0 +1,91 @@
+package com.github.username.service;
+
+import com.pengrad.telegrambot.Callback;
+import com.pengrad.telegrambot.TelegramBot;
+import com.pengrad.telegrambot.request.SendMessage;
+import com.pengrad.telegrambot.response.SendResponse;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Проверяет порядок внутри чата: один запрос в полете, повтор после 429 уходит раньше следующих сообщений
+ */
+class OutboundMessageSchedulerTest {
+
+    private final BlockingQueue<Sent> sent = new LinkedBlockingQueue<>();
+    private OutboundMessageScheduler scheduler;
+
+    private record Sent(SendMessage request, Callback<SendMessage, SendResponse> callback) {
+        String text() {
+            return (String) request.getParameters().get("text");
+        }
+    }
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        TelegramBot bot = mock(TelegramBot.class);
+        doAnswer(invocation -> {
+            sent.add(new Sent(invocation.getArgument(0), invocation.getArgument(1)));
+            return null;
+        }).when(bot).execute(any(SendMessage.class), any(Callback.class));
+
+        scheduler = new OutboundMessageScheduler(bot, new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(scheduler, "globalRatePerSecond", 1000);
+        ReflectionTestUtils.setField(scheduler, "chatIntervalMillis", 1L);
+        ReflectionTestUtils.setField(scheduler, "chatBurst", 3);
+        ReflectionTestUtils.setField(scheduler, "queueCapacity", 100);
+        ReflectionTestUtils.setField(scheduler, "deadlineMillis", 60_000L);
+        ReflectionTestUtils.setField(scheduler, "retryBaseMillis", 10L);
+        ReflectionTestUtils.setField(scheduler, "retryMaxMillis", 100L);
+        scheduler.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void chatMessagesAreSentOneAtATimeAndRetryKeepsOrder() throws Exception {
+        for (String text : List.of("1", "2", "3")) {
+            scheduler.submit(42L, new SendMessage(42L, text), SendPriority.NORMAL);
+        }
+
+        Sent first = sent.poll(5, TimeUnit.SECONDS);
+        assertEquals("1", first.text());
+        assertNull(sent.poll(200, TimeUnit.MILLISECONDS)); // Пока нет ответа на первое, второе не уходит
+
+        first.callback().onResponse(first.request(), response(429));
+        Sent retried = sent.poll(5, TimeUnit.SECONDS);
+        assertEquals("1", retried.text());
+
+        retried.callback().onResponse(retried.request(), response(0));
+        Sent second = sent.poll(5, TimeUnit.SECONDS);
+        assertEquals("2", second.text());
+        second.callback().onResponse(second.request(), response(0));
+        assertEquals("3", sent.poll(5, TimeUnit.SECONDS).text());
+    }
+
+    private static SendResponse response(int errorCode) {
+        SendResponse response = mock(SendResponse.class);
+        when(response.errorCode()).thenReturn(errorCode);
+        when(response.isOk()).thenReturn(errorCode == 0);
+        return response;
+    }
+}
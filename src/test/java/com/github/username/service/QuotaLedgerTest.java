@@ -0,0 +1,97 @@
+package com.github.username.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверяет упаковку состояния, правила списания, расширение таблицы под нагрузкой и выгрузку измененных записей
+ */
+class QuotaLedgerTest {
+
+    private static final int TODAY = 20000;
+
+    @Test
+    void packedStateRoundTrips() {
+        long packed = QuotaLedger.pack(TODAY, 17, -250);
+
+        assertEquals(TODAY, QuotaLedger.epochDay(packed));
+        assertEquals(17, QuotaLedger.dailyUsed(packed));
+        assertEquals(-250, QuotaLedger.balanceCents(packed));
+    }
+
+    @Test
+    void consumesFreeThenPaidAndResetsOnNewDay() {
+        QuotaLedger ledger = new QuotaLedger(16);
+        assertEquals(QuotaLedger.NOT_LOADED, ledger.tryConsume(42, TODAY, 1, 10));
+
+        ledger.putIfAbsent(42, QuotaLedger.pack(TODAY - 1, 5, 15));
+        assertEquals(0, ledger.tryConsume(42, TODAY, 1, 10));  // Новый день - бесплатный
+        assertEquals(10, ledger.tryConsume(42, TODAY, 1, 10)); // Лимит исчерпан - с баланса
+        assertEquals(QuotaLedger.REJECTED, ledger.tryConsume(42, TODAY, 1, 10));
+
+        ledger.refund(42, TODAY, 10);
+        long packed = ledger.get(42);
+        assertEquals(1, QuotaLedger.dailyUsed(packed));
+        assertEquals(15, QuotaLedger.balanceCents(packed));
+    }
+
+    @Test
+    void concurrentInsertsAndUpdatesSurviveResize() throws Exception {
+        QuotaLedger ledger = new QuotaLedger(0);
+        int users = 20_000;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        Future<?>[] workers = new Future<?>[8];
+        for (int w = 0; w < workers.length; w++) {
+            workers[w] = executor.submit(() -> {
+                for (long chatId = 1; chatId <= users; chatId++) {
+                    ledger.putIfAbsent(chatId, QuotaLedger.pack(TODAY, 0, 0));
+                    ledger.tryConsume(chatId, TODAY, 100, 0);
+                }
+            });
+        }
+        for (Future<?> worker : workers) {
+            worker.get();
+        }
+        executor.shutdown();
+
+        assertEquals(users, ledger.size());
+        AtomicInteger drained = new AtomicInteger();
+        AtomicLong used = new AtomicLong();
+        ledger.drainDirty((chatId, day, usedDelta, balanceDelta, completed) -> {
+            drained.incrementAndGet();
+            used.addAndGet(usedDelta);
+        });
+        assertEquals(users, drained.get());
+        assertEquals((long) users * workers.length, used.get());
+        assertEquals(0, ledger.drainDirty((chatId, day, usedDelta, balanceDelta, completed) -> { }));
+    }
+
+    @Test
+    void drainReturnsChangesSinceLastDrain() {
+        QuotaLedger ledger = new QuotaLedger(16);
+        ledger.putIfAbsent(42, QuotaLedger.pack(TODAY - 1, 5, 100));
+        ledger.tryConsume(42, TODAY - 1, 10, 10);
+        ledger.drainDirty((chatId, day, usedDelta, balanceDelta, completed) -> { });
+
+        ledger.tryConsume(42, TODAY, 1, 10); // Новый день: бесплатный
+        ledger.tryConsume(42, TODAY, 1, 10); // Платный
+        ledger.credit(42, 50);
+
+        long[] drained = new long[3];
+        ledger.drainDirty((chatId, day, usedDelta, balanceDelta, completed) -> {
+            drained[0] = day;
+            drained[1] = usedDelta;
+            drained[2] = balanceDelta;
+        });
+        assertEquals(TODAY, drained[0]);
+        assertEquals(2, drained[1]); // Полный счетчик нового дня, а не прибавка к 6 запросам прошлого
+        assertEquals(40, drained[2]);
+    }
+}
@@ -0,0 +1,168 @@
+package com.github.username.service;
+
+import com.github.username.entity.QuotaReservation;
+import com.github.username.entity.User;
+import com.github.username.repository.QuotaReservationRepository;
+import com.github.username.repository.UserRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет резервирование лимита поверх QuotaLedger: отказ сверх лимита, отмену, подтверждение,
+ * параллельные запросы, возврат просроченного или откаченного резерва, восстановление после падения
+ * и запись приращений без затирания изменений в БД
+ */
+@SpringBootTest(properties = {"usage.daily.free=1", "quota.ledger.enabled=true"})
+class QuotaServiceTest {
+
+    @Autowired
+    private QuotaService quotaService;
+
+    @Autowired
+    private UserRepository userRepository;
+
+    @Autowired
+    private QuotaReservationRepository reservationRepository;
+
+    @Autowired
+    private QuotaLedgerService quotaLedgerService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+
+    @Test
+    void releasedReservationReturnsRequestToLimit() {
+        QuotaService.Reservation reservation = quotaService.reserve(1001L, "Test", null, null).orElseThrow();
+        assertTrue(quotaService.reserve(1001L, "Test", null, null).isEmpty());
+
+        quotaService.release(reservation);
+
+        assertEquals(0, storedUser(1001L).getDailyRequestsUsed());
+        assertTrue(quotaService.reserve(1001L, "Test", null, null).isPresent());
+    }
+
+    @Test
+    void committedReservationIsCountedOnce() {
+        QuotaService.Reservation reservation = quotaService.reserve(1002L, "Test", null, null).orElseThrow();
+
+        quotaService.commit(reservation, "вопрос", "ответ", 10);
+        quotaService.release(reservation); // Запоздалая отмена уже ничего не меняет
+
+        assertEquals(1, storedUser(1002L).getDailyRequestsUsed());
+        assertEquals(1, storedUser(1002L).getTotalRequests());
+        assertFalse(reservationRepository.existsById(reservation.id()));
+    }
+
+    @Test
+    void concurrentReservationsDoNotExceedLimit() throws Exception {
+        quotaService.release(quotaService.reserve(1004L, "Test", null, null).orElseThrow()); // Создаем пользователя
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> attempts = new ArrayList<>();
+        for (int i = 0; i < 16; i++) {
+            attempts.add(executor.submit(() -> quotaService.reserve(1004L, "Test", null, null).isPresent()));
+        }
+        int granted = 0;
+        for (Future<Boolean> attempt : attempts) {
+            granted += attempt.get() ? 1 : 0;
+        }
+        executor.shutdown();
+
+        assertEquals(1, granted);
+        assertEquals(1, storedUser(1004L).getDailyRequestsUsed());
+    }
+
+    @Test
+    void rolledBackReservationReturnsRequestToLimit() {
+        quotaService.release(quotaService.reserve(1005L, "Test", null, null).orElseThrow()); // Создаем пользователя
+
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            assertTrue(quotaService.reserve(1005L, "Test", null, null).isPresent());
+            status.setRollbackOnly(); // Резерв не записался
+        });
+
+        assertEquals(0, storedUser(1005L).getDailyRequestsUsed());
+        assertTrue(quotaService.reserve(1005L, "Test", null, null).isPresent());
+    }
+
+    @Test
+    void expiredReservationIsReturnedByScheduler() {
+        QuotaService.Reservation reservation = quotaService.reserve(1003L, "Test", null, null).orElseThrow();
+        QuotaReservation row = reservationRepository.findById(reservation.id()).orElseThrow();
+        row.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        reservationRepository.save(row);
+
+        quotaService.expireStaleReservations();
+
+        assertEquals(0, storedUser(1003L).getDailyRequestsUsed());
+        Optional<QuotaService.Reservation> next = quotaService.reserve(1003L, "Test", null, null);
+        assertTrue(next.isPresent());
+    }
+
+    @Test
+    void reservationOfPreviousProcessIsReturnedOnlyIfItsDebitWasPersisted() {
+        quotaService.commit(quotaService.reserve(1006L, "Test", null, null).orElseThrow(), "вопрос", "ответ", 10);
+
+        staleReservationOfPreviousProcess(1006L, null); // Процесс упал до записи списания
+        quotaService.expireStaleReservations();
+        assertEquals(1, storedUser(1006L).getDailyRequestsUsed());
+
+        staleReservationOfPreviousProcess(1006L, true);
+        quotaService.expireStaleReservations();
+        assertEquals(0, storedUser(1006L).getDailyRequestsUsed());
+    }
+
+    @Test
+    void flushKeepsBalanceChangedOutsideLedger() {
+        quotaService.commit(quotaService.reserve(1007L, "Test", null, null).orElseThrow(), "вопрос", "ответ", 10);
+        double balance = storedUser(1007L).getBalance();
+
+        jdbcTemplate.update("update users set balance = balance + 1 where chat_id = ?", 1007L);
+        quotaLedgerService.credit(1007L, 0.5);
+
+        assertEquals(balance + 1.5, storedUser(1007L).getBalance(), 1e-9);
+        assertEquals(1, storedUser(1007L).getDailyRequestsUsed());
+    }
+
+    /**
+     * Просроченный резерв, созданный до запуска этого процесса
+     */
+    private void staleReservationOfPreviousProcess(Long chatId, Boolean debitPersisted) {
+        QuotaReservation reservation = new QuotaReservation();
+        reservation.setChatId(chatId);
+        reservation.setReservedOn(LocalDate.now());
+        reservation.setExpiresAt(LocalDateTime.now().minusSeconds(1));
+        reservation.setDebitPersisted(debitPersisted);
+        reservationRepository.save(reservation);
+        jdbcTemplate.update("update quota_reservations set created_at = ? where id = ?",
+                LocalDateTime.now().minusHours(1), reservation.getId());
+    }
+
+    /**
+     * Пользователь из БД после записи счетчиков из памяти
+     */
+    private User storedUser(Long chatId) {
+        quotaLedgerService.flush();
+        return userRepository.findById(chatId).orElseThrow();
+    }
+}
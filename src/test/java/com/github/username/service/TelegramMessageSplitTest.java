@@ -0,0 +1,40 @@
+package com.github.username.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет деление длинных ответов на сообщения Telegram
+ */
+class TelegramMessageSplitTest {
+
+    @Test
+    void shortTextIsSentAsIs() {
+        assertEquals(List.of("привет"), TelegramMessageService.splitMessage("привет"));
+    }
+
+    @Test
+    void longTextIsSplitOnLineBreak() {
+        String first = "а".repeat(3000);
+        String second = "б".repeat(3000);
+
+        List<String> parts = TelegramMessageService.splitMessage(first + "\n" + second);
+
+        assertEquals(List.of(first, second), parts);
+    }
+
+    @Test
+    void textWithoutSeparatorsIsCutAtLimit() {
+        String text = "x".repeat(TelegramMessageService.MAX_MESSAGE_LENGTH * 2 + 10);
+
+        List<String> parts = TelegramMessageService.splitMessage(text);
+
+        assertEquals(3, parts.size());
+        assertTrue(parts.stream().allMatch(part -> part.length() <= TelegramMessageService.MAX_MESSAGE_LENGTH));
+        assertEquals(text, String.join("", parts));
+    }
+}
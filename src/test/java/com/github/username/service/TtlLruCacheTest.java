@@ -0,0 +1,43 @@
+package com.github.username.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Проверяет вытеснение из кэша ответов по размеру, по времени жизни и нормализацию ключа
+ */
+class TtlLruCacheTest {
+
+    @Test
+    void leastRecentlyUsedEntryIsEvicted() {
+        TtlLruCache<String, String> cache = new TtlLruCache<>(2, 1, TimeUnit.HOURS);
+        cache.put("a", "1");
+        cache.put("b", "2");
+        cache.get("a");
+        cache.put("c", "3");
+
+        assertNull(cache.get("b"));
+        assertEquals("1", cache.get("a"));
+        assertEquals(1, cache.sizeEvictionCount());
+    }
+
+    @Test
+    void expiredEntryIsNotReturned() {
+        TtlLruCache<String, String> cache = new TtlLruCache<>(10, 0, TimeUnit.NANOSECONDS);
+        cache.put("a", "1");
+
+        assertNull(cache.get("a"));
+        assertEquals(1, cache.expirationCount());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void equivalentPromptsShareKey() {
+        assertEquals("что ты умеешь", ChatCompletionGateway.normalize("  Что ты   УМЕЕШЬ?? "));
+        assertEquals("еще вопрос", ChatCompletionGateway.normalize("Ещё вопрос!"));
+    }
+}
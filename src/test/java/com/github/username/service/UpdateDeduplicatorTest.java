@@ -0,0 +1,77 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверяет окно дедупликации update_id и то, что завершенные обновления помнятся после рестарта
+ */
+class UpdateDeduplicatorTest {
+
+    @TempDir
+    Path directory;
+
+    private UpdateDeduplicator deduplicator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        deduplicator = open(8, null);
+    }
+
+    @Test
+    void repeatedUpdateIsRejected() {
+        assertTrue(deduplicator.markFirstSeen(100));
+        assertTrue(deduplicator.markFirstSeen(101));
+        assertFalse(deduplicator.markFirstSeen(100));
+        assertFalse(deduplicator.markFirstSeen(101));
+    }
+
+    @Test
+    void outOfOrderUpdatesInsideWindowAreAccepted() {
+        assertTrue(deduplicator.markFirstSeen(105));
+        assertTrue(deduplicator.markFirstSeen(103));
+        assertTrue(deduplicator.markFirstSeen(104));
+        assertFalse(deduplicator.markFirstSeen(103));
+    }
+
+    @Test
+    void updatesOlderThanWindowAreTreatedAsDuplicates() {
+        assertTrue(deduplicator.markFirstSeen(200));
+        assertFalse(deduplicator.markFirstSeen(192));
+        assertTrue(deduplicator.markFirstSeen(193));
+    }
+
+    @Test
+    void completedUpdatesAreDuplicatesAfterRestart() throws Exception {
+        String file = directory.resolve("dedup.window").toString();
+        UpdateDeduplicator beforeCrash = open(8, file);
+        assertTrue(beforeCrash.markFirstSeen(300));
+        assertTrue(beforeCrash.markFirstSeen(301));
+        beforeCrash.markCompleted(300); // 301 еще в работе - процесс падает
+
+        UpdateDeduplicator restarted = open(8, file);
+        assertFalse(restarted.markFirstSeen(300));
+        assertTrue(restarted.markFirstSeen(301));
+        assertFalse(restarted.markFirstSeen(290)); // Старше окна от максимального завершенного
+
+        UpdateDeduplicator resized = open(16, file);
+        assertFalse(resized.markFirstSeen(300));
+        assertTrue(resized.markFirstSeen(301));
+    }
+
+    private static UpdateDeduplicator open(int windowSize, String file) throws Exception {
+        UpdateDeduplicator deduplicator = new UpdateDeduplicator(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(deduplicator, "windowSize", windowSize);
+        ReflectionTestUtils.setField(deduplicator, "file", file);
+        deduplicator.init();
+        return deduplicator;
+    }
+}
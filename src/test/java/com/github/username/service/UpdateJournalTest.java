@@ -0,0 +1,73 @@
+package com.github.username.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Проверяет, что checkpoint не уходит дальше незавершенной записи: после рестарта
+ * она и все записи после нее обрабатываются заново
+ */
+class UpdateJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private record Delivered(String payload, Runnable done) {
+    }
+
+    @Test
+    void unfinishedRecordIsReplayedAfterRestart() throws Exception {
+        UpdateJournal journal = open();
+        BlockingQueue<Delivered> delivered = new LinkedBlockingQueue<>();
+        journal.start((payload, done) -> delivered.add(new Delivered(new String(payload, StandardCharsets.UTF_8), done)));
+        for (String update : List.of("1", "2", "3")) {
+            journal.append(update.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Delivered first = delivered.poll(5, TimeUnit.SECONDS);
+        Delivered second = delivered.poll(5, TimeUnit.SECONDS);
+        Delivered third = delivered.poll(5, TimeUnit.SECONDS);
+        assertEquals("1", first.payload());
+        second.done().run();
+        third.done().run(); // Первая запись еще в работе - приложение "падает"
+        journal.stop();
+
+        UpdateJournal restarted = open();
+        BlockingQueue<Delivered> replayed = new LinkedBlockingQueue<>();
+        restarted.start((payload, done) -> {
+            replayed.add(new Delivered(new String(payload, StandardCharsets.UTF_8), done));
+            done.run();
+        });
+        assertEquals("1", replayed.poll(5, TimeUnit.SECONDS).payload());
+        assertEquals("2", replayed.poll(5, TimeUnit.SECONDS).payload());
+        assertEquals("3", replayed.poll(5, TimeUnit.SECONDS).payload());
+        restarted.stop();
+
+        UpdateJournal afterReplay = open();
+        BlockingQueue<String> nothing = new LinkedBlockingQueue<>();
+        afterReplay.start((payload, done) -> nothing.add(new String(payload, StandardCharsets.UTF_8)));
+        assertNull(nothing.poll(300, TimeUnit.MILLISECONDS));
+        afterReplay.stop();
+    }
+
+    private UpdateJournal open() throws Exception {
+        UpdateJournal journal = new UpdateJournal(new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(journal, "enabled", true);
+        ReflectionTestUtils.setField(journal, "directory", directory.toString());
+        ReflectionTestUtils.setField(journal, "segmentSize", 4096);
+        journal.init();
+        return journal;
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.username.service;
+
+import com.github.username.repository.UsageRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверяет отложенную запись usage_history: записи доходят до БД пачками,
+ * записи из откатившейся транзакции не пишутся, а плохая запись не теряет остальные записи пачки
+ */
+@SpringBootTest(properties = {"usage.history.batch-size=4", "usage.history.flush-ms=60000"})
+class UsageHistoryWriterTest {
+
+    @Autowired
+    private UsageHistoryWriter usageHistoryWriter;
+
+    @Autowired
+    private UsageRepository usageRepository;
+
+    @Autowired
+    private UserService userService;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void queuedRecordsAreWrittenInBatches() {
+        userService.createUser(3001L, "Test", null, null);
+        for (int i = 0; i < 10; i++) {
+            usageHistoryWriter.record(3001L, "вопрос " + i, "ответ " + i, 5, 0.0);
+        }
+
+        assertEquals(0, usageHistoryWriter.flush(5000));
+        assertEquals(10, history(3001L));
+    }
+
+    @Test
+    void recordFromRolledBackTransactionIsDropped() {
+        userService.createUser(3002L, "Test", null, null);
+        new TransactionTemplate(transactionManager).executeWithoutResult(status -> {
+            usageHistoryWriter.record(3002L, "вопрос", "ответ", 5, 0.0);
+            status.setRollbackOnly();
+        });
+        usageHistoryWriter.record(3002L, "вопрос", "ответ", 5, 0.0);
+
+        assertEquals(0, usageHistoryWriter.flush(5000));
+        assertEquals(1, history(3002L));
+    }
+
+    @Test
+    void badRecordDoesNotDropTheRestOfBatch() {
+        userService.createUser(3003L, "Test", null, null);
+        for (int i = 0; i < 3; i++) {
+            usageHistoryWriter.record(3003L, "вопрос " + i, "ответ " + i, 5, 0.0);
+        }
+        usageHistoryWriter.record(3999L, "вопрос", "ответ", 5, 0.0); // Пользователя нет - нарушение внешнего ключа
+
+        assertEquals(0, usageHistoryWriter.flush(5000));
+        assertEquals(3, history(3003L));
+    }
+
+    private int history(Long chatId) {
+        return usageRepository.findByUserChatIdAndCreatedAtAfterOrderByCreatedAtDesc(
+                chatId, LocalDateTime.now().minusHours(1), PageRequest.of(0, 100)).size();
+    }
+}
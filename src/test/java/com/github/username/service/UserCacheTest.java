@@ -0,0 +1,41 @@
+package com.github.username.service;
+
+import com.github.username.entity.User;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверяет, что кэш пользователей отдает независимые копии и сбрасывается при изменениях
+ */
+@SpringBootTest
+class UserCacheTest {
+
+    @Autowired
+    private UserCache userCache;
+
+    @Autowired
+    private UserService userService;
+
+    @Test
+    void cachedCopyIsNotSharedWithCaller() {
+        userService.createUser(2001L, "Test", null, null);
+
+        User first = userCache.find(2001L).orElseThrow();
+        first.setBalance(100.0);
+
+        assertEquals(0.0, userCache.find(2001L).orElseThrow().getBalance());
+    }
+
+    @Test
+    void balanceUpdateInvalidatesCachedUser() {
+        userService.createUser(2002L, "Test", null, null);
+        userCache.find(2002L).orElseThrow(); // Кладем в кэш
+
+        userService.updateUserBalance(2002L, 5.0);
+
+        assertEquals(5.0, userCache.find(2002L).orElseThrow().getBalance());
+    }
+}